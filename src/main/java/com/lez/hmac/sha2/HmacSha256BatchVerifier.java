@@ -0,0 +1,138 @@
+package com.lez.hmac.sha2;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+
+/**
+ * Signs or verifies many {@link HmacSha256Record}s in parallel on a {@link ForkJoinPool}.
+ * <p>
+ * The records are split into slices of at most {@code batchSize}; each worker signs
+ * with its own per-thread {@link javax.crypto.Mac} taken from the key's
+ * {@link HmacSha256Signer}. Results come back in the order of the input.
+ *
+ * @param <K> type of the key id
+ */
+public class HmacSha256BatchVerifier<K> {
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+
+    private final Function<K, HmacSha256Signer> signerResolver;
+    private final ForkJoinPool pool;
+    private final int batchSize;
+
+    /**
+     * @param signerResolver returns the signer of a key id, or null if the key is unknown.
+     *                       It is called from the workers and must be thread safe.
+     */
+    public HmacSha256BatchVerifier(Function<K, HmacSha256Signer> signerResolver) {
+        this(signerResolver, ForkJoinPool.commonPool(), DEFAULT_BATCH_SIZE);
+    }
+
+    public HmacSha256BatchVerifier(Function<K, HmacSha256Signer> signerResolver, ForkJoinPool pool, int batchSize) {
+        if (batchSize < 1) {
+            throw new RuntimeException("batchSize 不能小于 1 batchSize:" + batchSize);
+        }
+        this.signerResolver = signerResolver;
+        this.pool = pool;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Verify every record against its expected mac, comparing in constant time.
+     * Records with an unknown key id or without an expected mac fail.
+     *
+     * @return result[i] is the verification result of records.get(i)
+     */
+    public boolean[] verify(List<HmacSha256Record<K>> records) {
+        boolean[] result = new boolean[records.size()];
+        pool.invoke(new VerifyTask(records, result, 0, records.size()));
+        return result;
+    }
+
+    /**
+     * Sign every record.
+     *
+     * @return result[i] is the digest of records.get(i)
+     */
+    public byte[][] sign(List<HmacSha256Record<K>> records) {
+        byte[][] result = new byte[records.size()][];
+        pool.invoke(new SignTask(records, result, 0, records.size()));
+        return result;
+    }
+
+    private HmacSha256Signer signerOf(K keyId) {
+        return keyId == null ? null : signerResolver.apply(keyId);
+    }
+
+    private abstract class SliceTask extends RecursiveAction {
+        final List<HmacSha256Record<K>> records;
+        final int from;
+        final int to;
+
+        SliceTask(List<HmacSha256Record<K>> records, int from, int to) {
+            this.records = records;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= batchSize) {
+                for (int i = from; i < to; i++) {
+                    process(i, records.get(i));
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(split(from, mid), split(mid, to));
+        }
+
+        abstract SliceTask split(int from, int to);
+
+        abstract void process(int index, HmacSha256Record<K> record);
+    }
+
+    private final class VerifyTask extends SliceTask {
+        private final boolean[] result;
+
+        VerifyTask(List<HmacSha256Record<K>> records, boolean[] result, int from, int to) {
+            super(records, from, to);
+            this.result = result;
+        }
+
+        @Override
+        SliceTask split(int from, int to) {
+            return new VerifyTask(records, result, from, to);
+        }
+
+        @Override
+        void process(int index, HmacSha256Record<K> record) {
+            HmacSha256Signer signer = signerOf(record.getKeyId());
+            result[index] = signer != null && signer.verify(record.getMessage(), record.getExpectedMac());
+        }
+    }
+
+    private final class SignTask extends SliceTask {
+        private final byte[][] result;
+
+        SignTask(List<HmacSha256Record<K>> records, byte[][] result, int from, int to) {
+            super(records, from, to);
+            this.result = result;
+        }
+
+        @Override
+        SliceTask split(int from, int to) {
+            return new SignTask(records, result, from, to);
+        }
+
+        @Override
+        void process(int index, HmacSha256Record<K> record) {
+            HmacSha256Signer signer = signerOf(record.getKeyId());
+            if (signer == null) {
+                throw new RuntimeException("未知的 keyId:" + record.getKeyId());
+            }
+            result[index] = signer.sign(record.getMessage());
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.lez.hmac.sha2;
+
+import javax.crypto.Mac;
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental HMAC-SHA256 over a message that arrives in pieces.
+ * <p>
+ * A context owns its {@link Mac} and is not thread safe. After {@code doFinal}
+ * it is reset and can be reused for the next message with the same key.
+ */
+public final class HmacSha256Context {
+    private final Mac mac;
+
+    HmacSha256Context(Mac mac) {
+        this.mac = mac;
+    }
+
+    public HmacSha256Context update(byte b) {
+        mac.update(b);
+        return this;
+    }
+
+    public HmacSha256Context update(byte[] input) {
+        mac.update(input, 0, input.length);
+        return this;
+    }
+
+    public HmacSha256Context update(byte[] input, int offset, int length) {
+        mac.update(input, offset, length);
+        return this;
+    }
+
+    /**
+     * Feed the remaining bytes of {@code input}; its position is moved to its limit.
+     * Direct and mapped buffers are handed to the provider as they are.
+     */
+    public HmacSha256Context update(ByteBuffer input) {
+        mac.update(input);
+        return this;
+    }
+
+    /**
+     * Finish the message and write the digest into {@code out} starting at {@code outOffset}.
+     *
+     * @return the number of bytes written, always {@link HmacSha256Signer#MAC_LENGTH}
+     */
+    public int doFinal(byte[] out, int outOffset) {
+        try {
+            mac.doFinal(out, outOffset);
+            return HmacSha256Signer.MAC_LENGTH;
+        } catch (Exception e) {
+            mac.reset();
+            throw new RuntimeException("Failed to calculate hmac-sha256", e);
+        }
+    }
+
+    public byte[] doFinal() {
+        return mac.doFinal();
+    }
+
+    /**
+     * Drop everything fed so far.
+     */
+    public void reset() {
+        mac.reset();
+    }
+}
@@ -0,0 +1,34 @@
+package com.lez.hmac.sha2;
+
+/**
+ * One message to be signed or verified by {@link HmacSha256BatchVerifier}.
+ *
+ * @param <K> type of the key id, e.g. a merchant id
+ */
+public final class HmacSha256Record<K> {
+    private final K keyId;
+    private final byte[] message;
+    private final byte[] expectedMac;
+
+    public HmacSha256Record(K keyId, byte[] message) {
+        this(keyId, message, null);
+    }
+
+    public HmacSha256Record(K keyId, byte[] message, byte[] expectedMac) {
+        this.keyId = keyId;
+        this.message = message;
+        this.expectedMac = expectedMac;
+    }
+
+    public K getKeyId() {
+        return keyId;
+    }
+
+    public byte[] getMessage() {
+        return message;
+    }
+
+    public byte[] getExpectedMac() {
+        return expectedMac;
+    }
+}
@@ -0,0 +1,250 @@
+package com.lez.hmac.sha2;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+
+/**
+ * HMAC-SHA256 signer bound to one secret key.
+ * <p>
+ * Every thread keeps its own initialized {@link Mac}, so the provider lookup and
+ * key schedule are paid once per thread instead of once per call. The digest can be
+ * written into a caller supplied {@code byte[]} or {@link ByteBuffer}; in that case
+ * signing allocates nothing in the steady state.
+ */
+public final class HmacSha256Signer {
+    public static final String ALGORITHM = "HmacSHA256";
+    public static final int MAC_LENGTH = 32;
+
+    /**
+     * Size of the per-thread buffer used to read streams and channels.
+     */
+    static final int IO_BUFFER_SIZE = 64 * 1024;
+    /**
+     * Largest region mapped at once by {@link #signMapped(FileChannel, long, long)}.
+     */
+    static final long MAP_CHUNK_SIZE = 64L * 1024 * 1024;
+
+    private final SecretKeySpec secretKeySpec;
+    private final ThreadLocal<MacHolder> holders;
+
+    public HmacSha256Signer(byte[] secretKey) {
+        if (secretKey == null || secretKey.length == 0) {
+            throw new RuntimeException("secretKey 不能为空");
+        }
+        this.secretKeySpec = new SecretKeySpec(secretKey, ALGORITHM);
+        this.holders = ThreadLocal.withInitial(() -> new MacHolder(newMac(secretKeySpec)));
+    }
+
+    /**
+     * Sign the whole message and return a new 32 byte digest.
+     */
+    public byte[] sign(byte[] message) {
+        byte[] out = new byte[MAC_LENGTH];
+        sign(message, 0, message.length, out, 0);
+        return out;
+    }
+
+    /**
+     * Sign {@code message[offset, offset + length)} and write the digest into
+     * {@code out} starting at {@code outOffset}.
+     *
+     * @return the number of bytes written, always {@link #MAC_LENGTH}
+     */
+    public int sign(byte[] message, int offset, int length, byte[] out, int outOffset) {
+        Mac mac = acquire();
+        try {
+            mac.update(message, offset, length);
+            mac.doFinal(out, outOffset);
+            return MAC_LENGTH;
+        } catch (Exception e) {
+            mac.reset();
+            throw new RuntimeException("Failed to calculate hmac-sha256", e);
+        }
+    }
+
+    /**
+     * Sign the remaining bytes of {@code message} and put the digest into {@code out}.
+     * Both buffers' positions are advanced.
+     */
+    public void sign(ByteBuffer message, ByteBuffer out) {
+        if (out.remaining() < MAC_LENGTH) {
+            throw new RuntimeException("输出缓冲区空间不足 remaining:" + out.remaining());
+        }
+        MacHolder holder = holders.get();
+        Mac mac = holder.mac;
+        try {
+            mac.update(message);
+            if (out.hasArray()) {
+                mac.doFinal(out.array(), out.arrayOffset() + out.position());
+                ((Buffer) out).position(out.position() + MAC_LENGTH);
+            } else {
+                mac.doFinal(holder.scratch, 0);
+                out.put(holder.scratch);
+            }
+        } catch (Exception e) {
+            mac.reset();
+            throw new RuntimeException("Failed to calculate hmac-sha256", e);
+        }
+    }
+
+    /**
+     * Sign {@code message[offset, offset + length)} and compare the digest with
+     * {@code expectedMac} in constant time. Nothing is allocated.
+     */
+    public boolean verify(byte[] message, int offset, int length, byte[] expectedMac) {
+        if (expectedMac == null || expectedMac.length != MAC_LENGTH) {
+            return false;
+        }
+        MacHolder holder = holders.get();
+        Mac mac = holder.mac;
+        try {
+            mac.update(message, offset, length);
+            mac.doFinal(holder.scratch, 0);
+        } catch (Exception e) {
+            mac.reset();
+            throw new RuntimeException("Failed to calculate hmac-sha256", e);
+        }
+        return MessageDigest.isEqual(holder.scratch, expectedMac);
+    }
+
+    public boolean verify(byte[] message, byte[] expectedMac) {
+        return verify(message, 0, message.length, expectedMac);
+    }
+
+    /**
+     * Create an incremental context with its own {@link Mac}.
+     */
+    public HmacSha256Context newContext() {
+        return new HmacSha256Context(newMac(secretKeySpec));
+    }
+
+    /**
+     * Sign everything left in {@code in}. The stream is read to its end but not closed.
+     */
+    public byte[] sign(InputStream in) throws IOException {
+        byte[] out = new byte[MAC_LENGTH];
+        sign(in, out, 0);
+        return out;
+    }
+
+    /**
+     * Sign everything left in {@code in} and write the digest into {@code out}.
+     * Memory use does not depend on the stream length.
+     */
+    public int sign(InputStream in, byte[] out, int outOffset) throws IOException {
+        MacHolder holder = holders.get();
+        Mac mac = holder.mac;
+        byte[] buffer = holder.heapBuffer();
+        try {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                mac.update(buffer, 0, n);
+            }
+            mac.doFinal(out, outOffset);
+            return MAC_LENGTH;
+        } catch (IOException e) {
+            mac.reset();
+            throw e;
+        } catch (Exception e) {
+            mac.reset();
+            throw new RuntimeException("Failed to calculate hmac-sha256", e);
+        }
+    }
+
+    /**
+     * Sign the channel from its current position to its end, reading through a
+     * per-thread direct buffer.
+     */
+    public byte[] sign(FileChannel channel) throws IOException {
+        MacHolder holder = holders.get();
+        Mac mac = holder.mac;
+        ByteBuffer buffer = holder.directBuffer();
+        try {
+            // call through Buffer: built on JDK 9+, ByteBuffer.clear()/flip() resolve to overloads missing on Java 8
+            ((Buffer) buffer).clear();
+            while (channel.read(buffer) != -1) {
+                ((Buffer) buffer).flip();
+                mac.update(buffer);
+                ((Buffer) buffer).clear();
+            }
+            return mac.doFinal();
+        } catch (IOException e) {
+            mac.reset();
+            throw e;
+        }
+    }
+
+    /**
+     * Sign {@code size} bytes of the file starting at {@code position} by mapping it
+     * into memory, at most {@link #MAP_CHUNK_SIZE} bytes at a time. Nothing is copied
+     * onto the heap, so files larger than 2GB are fine too.
+     */
+    public byte[] signMapped(FileChannel channel, long position, long size) throws IOException {
+        if (position < 0 || size < 0 || position + size > channel.size()) {
+            throw new RuntimeException("错误参数 position:" + position + " size:" + size + " channelSize:" + channel.size());
+        }
+        Mac mac = acquire();
+        try {
+            long end = position + size;
+            for (long p = position; p < end; p += MAP_CHUNK_SIZE) {
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, p, Math.min(MAP_CHUNK_SIZE, end - p));
+                mac.update(region);
+            }
+            return mac.doFinal();
+        } catch (IOException e) {
+            mac.reset();
+            throw e;
+        }
+    }
+
+    /**
+     * Get this thread's {@link Mac}, already initialized with the key and reset.
+     * The caller must finish it with {@code doFinal} or {@code reset} before it is
+     * handed out again on the same thread.
+     */
+    Mac acquire() {
+        return holders.get().mac;
+    }
+
+    static Mac newMac(SecretKeySpec secretKeySpec) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(secretKeySpec);
+            return mac;
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to init hmac-sha256", e);
+        }
+    }
+
+    private static final class MacHolder {
+        final Mac mac;
+        final byte[] scratch = new byte[MAC_LENGTH];
+        private byte[] heapBuffer;
+        private ByteBuffer directBuffer;
+
+        MacHolder(Mac mac) {
+            this.mac = mac;
+        }
+
+        byte[] heapBuffer() {
+            if (heapBuffer == null) {
+                heapBuffer = new byte[IO_BUFFER_SIZE];
+            }
+            return heapBuffer;
+        }
+
+        ByteBuffer directBuffer() {
+            if (directBuffer == null) {
+                directBuffer = ByteBuffer.allocateDirect(IO_BUFFER_SIZE);
+            }
+            return directBuffer;
+        }
+    }
+}
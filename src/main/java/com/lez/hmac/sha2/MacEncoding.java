@@ -0,0 +1,108 @@
+package com.lez.hmac.sha2;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Table driven hex and base64 encoders that write into a caller supplied buffer.
+ */
+public final class MacEncoding {
+    private MacEncoding() {
+    }
+
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BASE64_DIGITS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * HEX_TABLE[b & 0xff] holds both lowercase hex digits of b, high digit in the upper byte.
+     */
+    private static final short[] HEX_TABLE = new short[256];
+
+    static {
+        for (int i = 0; i < HEX_TABLE.length; i++) {
+            HEX_TABLE[i] = (short) (HEX_DIGITS[i >>> 4] << 8 | HEX_DIGITS[i & 0x0f]);
+        }
+    }
+
+    public static int hexLength(int length) {
+        return length << 1;
+    }
+
+    public static int base64Length(int length) {
+        return (length + 2) / 3 * 4;
+    }
+
+    /**
+     * Write the lowercase hex form of {@code src[srcOffset, srcOffset + length)} into {@code dst}.
+     * Leading zeros are kept, so a SHA-256 digest always becomes 64 digits.
+     *
+     * @return the number of bytes written
+     */
+    public static int encodeHex(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset) {
+        checkSpace(dst, dstOffset, hexLength(length));
+        int d = dstOffset;
+        for (int i = srcOffset, end = srcOffset + length; i < end; i++) {
+            short digits = HEX_TABLE[src[i] & 0xff];
+            dst[d++] = (byte) (digits >>> 8);
+            dst[d++] = (byte) digits;
+        }
+        return d - dstOffset;
+    }
+
+    public static int encodeHex(byte[] src, int srcOffset, int length, char[] dst, int dstOffset) {
+        checkSpace(dst.length, dstOffset, hexLength(length));
+        int d = dstOffset;
+        for (int i = srcOffset, end = srcOffset + length; i < end; i++) {
+            short digits = HEX_TABLE[src[i] & 0xff];
+            dst[d++] = (char) (digits >>> 8 & 0xff);
+            dst[d++] = (char) (digits & 0xff);
+        }
+        return d - dstOffset;
+    }
+
+    public static String toHex(byte[] src) {
+        char[] dst = new char[hexLength(src.length)];
+        encodeHex(src, 0, src.length, dst, 0);
+        return new String(dst);
+    }
+
+    /**
+     * Write the standard, padded base64 form of {@code src[srcOffset, srcOffset + length)} into {@code dst}.
+     *
+     * @return the number of bytes written
+     */
+    public static int encodeBase64(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset) {
+        checkSpace(dst, dstOffset, base64Length(length));
+        int s = srcOffset;
+        int d = dstOffset;
+        int fullEnd = srcOffset + length / 3 * 3;
+        while (s < fullEnd) {
+            int bits = (src[s++] & 0xff) << 16 | (src[s++] & 0xff) << 8 | (src[s++] & 0xff);
+            dst[d++] = BASE64_DIGITS[bits >>> 18 & 0x3f];
+            dst[d++] = BASE64_DIGITS[bits >>> 12 & 0x3f];
+            dst[d++] = BASE64_DIGITS[bits >>> 6 & 0x3f];
+            dst[d++] = BASE64_DIGITS[bits & 0x3f];
+        }
+        int left = srcOffset + length - s;
+        if (left > 0) {
+            int bits = (src[s++] & 0xff) << 10;
+            if (left == 2) {
+                bits |= (src[s] & 0xff) << 2;
+            }
+            dst[d++] = BASE64_DIGITS[bits >>> 12];
+            dst[d++] = BASE64_DIGITS[bits >>> 6 & 0x3f];
+            dst[d++] = left == 2 ? BASE64_DIGITS[bits & 0x3f] : (byte) '=';
+            dst[d++] = '=';
+        }
+        return d - dstOffset;
+    }
+
+    private static void checkSpace(byte[] dst, int dstOffset, int need) {
+        checkSpace(dst.length, dstOffset, need);
+    }
+
+    private static void checkSpace(int dstLength, int dstOffset, int need) {
+        if (dstOffset < 0 || dstLength - dstOffset < need) {
+            throw new RuntimeException("输出缓冲区空间不足 need:" + need + " dstOffset:" + dstOffset + " dstLength:" + dstLength);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.lez.hmac.sha2;
+
+import java.security.MessageDigest;
+
+/**
+ * Pure java HMAC-SHA256 for one fixed key.
+ * <p>
+ * HMAC(K, m) = H((K ^ opad) || H((K ^ ipad) || m)). The blocks K ^ ipad and K ^ opad
+ * never change for a key, so their compressed states (the midstates) are computed
+ * once in the constructor. Every signature starts from a copy of them and saves
+ * two compressions, which is most of the work for short messages.
+ * <p>
+ * Thread safe; each thread works in its own preallocated workspace, so signing into
+ * a caller buffer allocates nothing.
+ * <p>
+ * The JDK provider can use SHA intrinsics that plain java code cannot, so measure
+ * against {@link HmacSha256Signer} on the target JVM before choosing this engine.
+ */
+public final class PrecomputedHmacSha256 {
+    private static final int BLOCK_LENGTH = 64;
+    private static final int MAC_LENGTH = HmacSha256Signer.MAC_LENGTH;
+
+    private static final int[] IV = {
+            0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19
+    };
+
+    private static final int[] K = {
+            0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+            0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+            0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+            0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+            0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+            0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+            0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+            0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+    };
+
+    private final int[] innerState = new int[8];
+    private final int[] outerState = new int[8];
+    private final ThreadLocal<Workspace> workspaces = ThreadLocal.withInitial(Workspace::new);
+
+    public PrecomputedHmacSha256(byte[] secretKey) {
+        if (secretKey == null || secretKey.length == 0) {
+            throw new RuntimeException("secretKey 不能为空");
+        }
+        Workspace ws = new Workspace();
+        byte[] key = secretKey;
+        if (key.length > BLOCK_LENGTH) {
+            key = new byte[MAC_LENGTH];
+            System.arraycopy(IV, 0, ws.state, 0, 8);
+            digest(ws, 0, secretKey, 0, secretKey.length, key, 0);
+        }
+
+        byte[] pad = new byte[BLOCK_LENGTH];
+        for (int i = 0; i < BLOCK_LENGTH; i++) {
+            pad[i] = (byte) ((i < key.length ? key[i] : 0) ^ 0x36);
+        }
+        System.arraycopy(IV, 0, innerState, 0, 8);
+        compress(innerState, ws.w, pad, 0);
+
+        for (int i = 0; i < BLOCK_LENGTH; i++) {
+            pad[i] = (byte) ((i < key.length ? key[i] : 0) ^ 0x5c);
+        }
+        System.arraycopy(IV, 0, outerState, 0, 8);
+        compress(outerState, ws.w, pad, 0);
+    }
+
+    public byte[] sign(byte[] message) {
+        byte[] out = new byte[MAC_LENGTH];
+        sign(message, 0, message.length, out, 0);
+        return out;
+    }
+
+    /**
+     * Sign {@code message[offset, offset + length)} and write the digest into
+     * {@code out} starting at {@code outOffset}.
+     *
+     * @return the number of bytes written, always 32
+     */
+    public int sign(byte[] message, int offset, int length, byte[] out, int outOffset) {
+        if (offset < 0 || length < 0 || offset + length > message.length) {
+            throw new RuntimeException("错误参数 offset:" + offset + " length:" + length + " messageLength:" + message.length);
+        }
+        if (outOffset < 0 || out.length - outOffset < MAC_LENGTH) {
+            throw new RuntimeException("输出缓冲区空间不足 outOffset:" + outOffset + " outLength:" + out.length);
+        }
+        Workspace ws = workspaces.get();
+
+        System.arraycopy(innerState, 0, ws.state, 0, 8);
+        digest(ws, BLOCK_LENGTH, message, offset, length, ws.innerDigest, 0);
+
+        System.arraycopy(outerState, 0, ws.state, 0, 8);
+        digest(ws, BLOCK_LENGTH, ws.innerDigest, 0, MAC_LENGTH, out, outOffset);
+        return MAC_LENGTH;
+    }
+
+    /**
+     * Sign the message and compare with {@code expectedMac} in constant time.
+     */
+    public boolean verify(byte[] message, int offset, int length, byte[] expectedMac) {
+        if (expectedMac == null || expectedMac.length != MAC_LENGTH) {
+            return false;
+        }
+        Workspace ws = workspaces.get();
+        sign(message, offset, length, ws.mac, 0);
+        return MessageDigest.isEqual(ws.mac, expectedMac);
+    }
+
+    public boolean verify(byte[] message, byte[] expectedMac) {
+        return verify(message, 0, message.length, expectedMac);
+    }
+
+    /**
+     * Continue the hash in ws.state over {@code src}, which follows {@code prefixLength}
+     * bytes that are already compressed into the state, then pad and write the digest.
+     */
+    private static void digest(Workspace ws, long prefixLength, byte[] src, int offset, int length, byte[] out, int outOffset) {
+        int[] state = ws.state;
+        int[] w = ws.w;
+        int end = offset + length;
+        int p = offset;
+        for (; end - p >= BLOCK_LENGTH; p += BLOCK_LENGTH) {
+            compress(state, w, src, p);
+        }
+
+        byte[] block = ws.block;
+        int left = end - p;
+        System.arraycopy(src, p, block, 0, left);
+        block[left++] = (byte) 0x80;
+        if (left > BLOCK_LENGTH - 8) {
+            for (int i = left; i < BLOCK_LENGTH; i++) {
+                block[i] = 0;
+            }
+            compress(state, w, block, 0);
+            left = 0;
+        }
+        for (int i = left; i < BLOCK_LENGTH - 8; i++) {
+            block[i] = 0;
+        }
+        long bitLength = (prefixLength + length) << 3;
+        for (int i = 0; i < 8; i++) {
+            block[BLOCK_LENGTH - 1 - i] = (byte) (bitLength >>> (i << 3));
+        }
+        compress(state, w, block, 0);
+
+        for (int i = 0; i < 8; i++) {
+            int v = state[i];
+            int o = outOffset + (i << 2);
+            out[o] = (byte) (v >>> 24);
+            out[o + 1] = (byte) (v >>> 16);
+            out[o + 2] = (byte) (v >>> 8);
+            out[o + 3] = (byte) v;
+        }
+    }
+
+    /**
+     * SHA-256 compression function over src[offset, offset + 64).
+     */
+    private static void compress(int[] state, int[] w, byte[] src, int offset) {
+        for (int t = 0; t < 16; t++) {
+            int o = offset + (t << 2);
+            w[t] = src[o] << 24 | (src[o + 1] & 0xff) << 16 | (src[o + 2] & 0xff) << 8 | (src[o + 3] & 0xff);
+        }
+        for (int t = 16; t < 64; t++) {
+            int w15 = w[t - 15];
+            int w2 = w[t - 2];
+            int s0 = Integer.rotateRight(w15, 7) ^ Integer.rotateRight(w15, 18) ^ (w15 >>> 3);
+            int s1 = Integer.rotateRight(w2, 17) ^ Integer.rotateRight(w2, 19) ^ (w2 >>> 10);
+            w[t] = w[t - 16] + s0 + w[t - 7] + s1;
+        }
+
+        int a = state[0], b = state[1], c = state[2], d = state[3];
+        int e = state[4], f = state[5], g = state[6], h = state[7];
+        for (int t = 0; t < 64; t++) {
+            int s1 = Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25);
+            int ch = (e & f) ^ (~e & g);
+            int t1 = h + s1 + ch + K[t] + w[t];
+            int s0 = Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13) ^ Integer.rotateRight(a, 22);
+            int maj = (a & b) ^ (a & c) ^ (b & c);
+            int t2 = s0 + maj;
+            h = g;
+            g = f;
+            f = e;
+            e = d + t1;
+            d = c;
+            c = b;
+            b = a;
+            a = t1 + t2;
+        }
+        state[0] += a;
+        state[1] += b;
+        state[2] += c;
+        state[3] += d;
+        state[4] += e;
+        state[5] += f;
+        state[6] += g;
+        state[7] += h;
+    }
+
+    private static final class Workspace {
+        final int[] state = new int[8];
+        final int[] w = new int[64];
+        final byte[] block = new byte[BLOCK_LENGTH];
+        final byte[] innerDigest = new byte[MAC_LENGTH];
+        final byte[] mac = new byte[MAC_LENGTH];
+    }
+}
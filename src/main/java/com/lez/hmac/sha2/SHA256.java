@@ -1,13 +1,10 @@
 package com.lez.hmac.sha2;
 
 
-import javax.crypto.KeyGenerator;
 import javax.crypto.Mac;
-import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.UnsupportedEncodingException;
-import java.math.BigInteger;
-import java.security.NoSuchAlgorithmException;
+import java.nio.charset.StandardCharsets;
 
 /**
  * HMAC: Hash-based Message Authentication Code
@@ -17,11 +14,24 @@ public class SHA256 {
     public static void main(String[] args) {
         try {
             byte[] hmacSha256 = HMAC.calcHmacSha256("Ziu61T9xY227aazS530Pk8C5424y663r".getBytes("UTF-8"), "10003f2504e04f8911d39a0c0305e82c3301MYR12321144221Product Ahmac-sha256TRX1708901http://yoursite.com/result?referenceId=TRX1708901v1".getBytes("UTF-8"));
-            System.out.println(String.format("Hex: %032x", new BigInteger(1, hmacSha256)));
+            System.out.println("Hex: " + MacEncoding.toHex(hmacSha256));
         } catch (UnsupportedEncodingException e) {
             e.printStackTrace();
         }
 
+        //同样的签名，字段直接写入可复用的缓冲区，签名和编码都不产生中间对象
+        HmacSha256Signer signer = new HmacSha256Signer("Ziu61T9xY227aazS530Pk8C5424y663r".getBytes(StandardCharsets.UTF_8));
+        SignMessageBuilder builder = new SignMessageBuilder();
+        byte[] mac = new byte[HmacSha256Signer.MAC_LENGTH];
+        byte[] hex = new byte[MacEncoding.hexLength(HmacSha256Signer.MAC_LENGTH)];
+        builder.reset()
+                .append(10003).append("f2504e04f8911d39a0c0305e82c3301").append("MYR").append(12321144221L)
+                .append("Product A").append("hmac-sha256").append("TRX1708901")
+                .append("http://yoursite.com/result?referenceId=TRX1708901").append("v1")
+                .sign(signer, mac, 0);
+        MacEncoding.encodeHex(mac, 0, mac.length, hex, 0);
+        System.out.println("Hex: " + new String(hex, StandardCharsets.US_ASCII));
+
     }
 }
 
@@ -0,0 +1,157 @@
+package com.lez.hmac.sha2;
+
+import java.util.Arrays;
+
+/**
+ * Builds the canonical signing string of a request straight into a reusable byte buffer.
+ * <p>
+ * Fields are encoded as UTF-8 while they are appended, so no intermediate
+ * {@link String} or {@code byte[]} is created. Call {@link #reset()} and reuse the
+ * builder for the next request; it is not thread safe, keep one per thread.
+ */
+public final class SignMessageBuilder {
+    private static final int DEFAULT_CAPACITY = 256;
+
+    private byte[] buffer;
+    private int length;
+
+    public SignMessageBuilder() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public SignMessageBuilder(int initialCapacity) {
+        this.buffer = new byte[Math.max(initialCapacity, 16)];
+    }
+
+    public SignMessageBuilder reset() {
+        length = 0;
+        return this;
+    }
+
+    /**
+     * Append {@code value} encoded as UTF-8. A null value appends nothing.
+     */
+    public SignMessageBuilder append(CharSequence value) {
+        if (value == null) {
+            return this;
+        }
+        int n = value.length();
+        ensureCapacity(length + n * 3);
+        byte[] b = buffer;
+        int p = length;
+        for (int i = 0; i < n; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                b[p++] = (byte) c;
+            } else if (c < 0x800) {
+                b[p++] = (byte) (0xc0 | c >> 6);
+                b[p++] = (byte) (0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                b[p++] = (byte) (0xf0 | cp >> 18);
+                b[p++] = (byte) (0x80 | cp >> 12 & 0x3f);
+                b[p++] = (byte) (0x80 | cp >> 6 & 0x3f);
+                b[p++] = (byte) (0x80 | cp & 0x3f);
+            } else if (Character.isSurrogate(c)) {
+                //和 String.getBytes 一样，孤立的代理字符写成 '?'
+                b[p++] = '?';
+            } else {
+                b[p++] = (byte) (0xe0 | c >> 12);
+                b[p++] = (byte) (0x80 | c >> 6 & 0x3f);
+                b[p++] = (byte) (0x80 | c & 0x3f);
+            }
+        }
+        length = p;
+        return this;
+    }
+
+    public SignMessageBuilder append(char c) {
+        if (c < 0x80) {
+            ensureCapacity(length + 1);
+            buffer[length++] = (byte) c;
+            return this;
+        }
+        return append(String.valueOf(c));
+    }
+
+    /**
+     * Append the decimal form of {@code value}, same as {@link Long#toString(long)}.
+     */
+    public SignMessageBuilder append(long value) {
+        if (value == Long.MIN_VALUE) {
+            return append("-9223372036854775808");
+        }
+        ensureCapacity(length + 20);
+        if (value < 0) {
+            buffer[length++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        int p = length + digits;
+        do {
+            buffer[--p] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        length += digits;
+        return this;
+    }
+
+    public SignMessageBuilder append(int value) {
+        return append((long) value);
+    }
+
+    public SignMessageBuilder append(byte[] bytes, int offset, int len) {
+        ensureCapacity(length + len);
+        System.arraycopy(bytes, offset, buffer, length, len);
+        length += len;
+        return this;
+    }
+
+    /**
+     * Sign the bytes built so far and write the digest into {@code out}.
+     */
+    public int sign(HmacSha256Signer signer, byte[] out, int outOffset) {
+        return signer.sign(buffer, 0, length, out, outOffset);
+    }
+
+    public byte[] sign(HmacSha256Signer signer) {
+        byte[] out = new byte[HmacSha256Signer.MAC_LENGTH];
+        sign(signer, out, 0);
+        return out;
+    }
+
+    public boolean verify(HmacSha256Signer signer, byte[] expectedMac) {
+        return signer.verify(buffer, 0, length, expectedMac);
+    }
+
+    /**
+     * Feed the bytes built so far into an incremental context.
+     */
+    public HmacSha256Context writeTo(HmacSha256Context context) {
+        return context.update(buffer, 0, length);
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * The internal buffer, valid in [0, {@link #length()}) until the next append or reset.
+     */
+    public byte[] array() {
+        return buffer;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, length);
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        if (minCapacity > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(minCapacity, buffer.length << 1));
+        }
+    }
+}
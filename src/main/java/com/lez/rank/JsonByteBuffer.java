@@ -0,0 +1,193 @@
+package com.lez.rank;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 可复用的json字节缓冲区，直接以UTF-8写入json的各种值，不产生中间String
+ */
+public final class JsonByteBuffer {
+    private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+    private static final byte[] MIN_LONG = "-9223372036854775808".getBytes(StandardCharsets.US_ASCII);
+
+    private byte[] buffer;
+    private int size;
+
+    public JsonByteBuffer() {
+        this(4096);
+    }
+
+    public JsonByteBuffer(int initialCapacity) {
+        buffer = new byte[Math.max(initialCapacity, 64)];
+    }
+
+    public JsonByteBuffer reset() {
+        size = 0;
+        return this;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+
+    /**
+     * 内部数组，[0, size()) 为有效数据
+     */
+    public byte[] array() {
+        return buffer;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, size);
+    }
+
+    public JsonByteBuffer writeByte(char c) {
+        ensureCapacity(size + 1);
+        buffer[size++] = (byte) c;
+        return this;
+    }
+
+    /**
+     * 写入一个不需要转义的ascii片段，如字段名、标点
+     */
+    public JsonByteBuffer writeRaw(byte[] bytes) {
+        ensureCapacity(size + bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+        return this;
+    }
+
+    public JsonByteBuffer writeNull() {
+        ensureCapacity(size + 4);
+        buffer[size++] = 'n';
+        buffer[size++] = 'u';
+        buffer[size++] = 'l';
+        buffer[size++] = 'l';
+        return this;
+    }
+
+    public JsonByteBuffer writeBoolean(boolean value) {
+        if (value) {
+            ensureCapacity(size + 4);
+            buffer[size++] = 't';
+            buffer[size++] = 'r';
+            buffer[size++] = 'u';
+            buffer[size++] = 'e';
+        } else {
+            ensureCapacity(size + 5);
+            buffer[size++] = 'f';
+            buffer[size++] = 'a';
+            buffer[size++] = 'l';
+            buffer[size++] = 's';
+            buffer[size++] = 'e';
+        }
+        return this;
+    }
+
+    public JsonByteBuffer writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            return writeRaw(MIN_LONG);
+        }
+        ensureCapacity(size + 20);
+        if (value < 0) {
+            buffer[size++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        int p = size + digits;
+        do {
+            buffer[--p] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        size += digits;
+        return this;
+    }
+
+    /**
+     * 整数值的double按整数写入，不产生垃圾；其他值使用Double.toString，每次会分配一个String。NaN和无穷大写为null
+     */
+    public JsonByteBuffer writeDouble(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return writeNull();
+        }
+        long l = (long) value;
+        if (l == value && Math.abs(l) < (1L << 53)) {
+            return writeLong(l);
+        }
+        String s = Double.toString(value);
+        ensureCapacity(size + s.length());
+        for (int i = 0; i < s.length(); i++) {
+            buffer[size++] = (byte) s.charAt(i);
+        }
+        return this;
+    }
+
+    /**
+     * 写入带引号并转义的json字符串，null写为null
+     */
+    public JsonByteBuffer writeString(CharSequence value) {
+        if (value == null) {
+            return writeNull();
+        }
+        int n = value.length();
+        ensureCapacity(size + n * 6 + 2);
+        byte[] b = buffer;
+        int p = size;
+        b[p++] = '"';
+        for (int i = 0; i < n; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (c == '"' || c == '\\') {
+                    b[p++] = '\\';
+                    b[p++] = (byte) c;
+                } else if (c < 0x20) {
+                    b[p++] = '\\';
+                    b[p++] = 'u';
+                    b[p++] = '0';
+                    b[p++] = '0';
+                    b[p++] = HEX[c >> 4];
+                    b[p++] = HEX[c & 0xf];
+                } else {
+                    b[p++] = (byte) c;
+                }
+            } else if (c < 0x800) {
+                b[p++] = (byte) (0xc0 | c >> 6);
+                b[p++] = (byte) (0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                b[p++] = (byte) (0xf0 | cp >> 18);
+                b[p++] = (byte) (0x80 | cp >> 12 & 0x3f);
+                b[p++] = (byte) (0x80 | cp >> 6 & 0x3f);
+                b[p++] = (byte) (0x80 | cp & 0x3f);
+            } else if (Character.isSurrogate(c)) {
+                b[p++] = '?';
+            } else {
+                b[p++] = (byte) (0xe0 | c >> 12);
+                b[p++] = (byte) (0x80 | c >> 6 & 0x3f);
+                b[p++] = (byte) (0x80 | c & 0x3f);
+            }
+        }
+        b[p++] = '"';
+        size = p;
+        return this;
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        if (minCapacity > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(minCapacity, buffer.length << 1));
+        }
+    }
+}
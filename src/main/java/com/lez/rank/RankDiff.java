@@ -0,0 +1,107 @@
+package com.lez.rank;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 订阅范围内两次快照之间的排名变化，由{@link RankSubscriptions}推送
+ */
+public class RankDiff<K> {
+
+    /**
+     * 一个关键字的排名变化，排名为0表示不在订阅范围内
+     */
+    public static final class Change<K> {
+        private final K key;
+        private final int oldRank;
+        private final int newRank;
+
+        Change(K key, int oldRank, int newRank) {
+            this.key = key;
+            this.oldRank = oldRank;
+            this.newRank = newRank;
+        }
+
+        public K getKey() {
+            return key;
+        }
+
+        public int getOldRank() {
+            return oldRank;
+        }
+
+        public int getNewRank() {
+            return newRank;
+        }
+
+        @Override
+        public String toString() {
+            return key + ":" + oldRank + "->" + newRank;
+        }
+    }
+
+    private final List<Change<K>> entered;
+    private final List<Change<K>> left;
+    private final List<Change<K>> moved;
+
+    private RankDiff(List<Change<K>> entered, List<Change<K>> left, List<Change<K>> moved) {
+        this.entered = entered;
+        this.left = left;
+        this.moved = moved;
+    }
+
+    /**
+     * 比较两次快照（关键字 -> 排名）
+     */
+    static <K> RankDiff<K> between(Map<K, Integer> before, Map<K, Integer> after) {
+        List<Change<K>> entered = new ArrayList<>();
+        List<Change<K>> left = new ArrayList<>();
+        List<Change<K>> moved = new ArrayList<>();
+        for (Map.Entry<K, Integer> e : after.entrySet()) {
+            Integer oldRank = before.get(e.getKey());
+            if (oldRank == null) {
+                entered.add(new Change<>(e.getKey(), 0, e.getValue()));
+            } else if (!oldRank.equals(e.getValue())) {
+                moved.add(new Change<>(e.getKey(), oldRank, e.getValue()));
+            }
+        }
+        for (Map.Entry<K, Integer> e : before.entrySet()) {
+            if (!after.containsKey(e.getKey())) {
+                left.add(new Change<>(e.getKey(), e.getValue(), 0));
+            }
+        }
+        return new RankDiff<>(entered, left, moved);
+    }
+
+    /**
+     * 进入订阅范围的关键字
+     */
+    public List<Change<K>> getEntered() {
+        return Collections.unmodifiableList(entered);
+    }
+
+    /**
+     * 离开订阅范围的关键字
+     */
+    public List<Change<K>> getLeft() {
+        return Collections.unmodifiableList(left);
+    }
+
+    /**
+     * 仍在订阅范围内但排名变化的关键字
+     */
+    public List<Change<K>> getMoved() {
+        return Collections.unmodifiableList(moved);
+    }
+
+    public boolean isEmpty() {
+        return entered.isEmpty() && left.isEmpty() && moved.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "entered:" + entered + " left:" + left + " moved:" + moved;
+    }
+}
@@ -0,0 +1,151 @@
+package com.lez.rank;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * 把排行榜的一页直接序列化为json数组，如 [{"rank":1,"userId":3,"score":99.5},...]
+ * <p>
+ * 在读锁内按排名顺序遍历树，逐行写入可复用的字节缓冲区，不创建value的拷贝、List和String。
+ * 写入OutputStream时，先在锁内序列化到当前线程的缓冲区，释放锁后再写出，慢连接不会占住读锁。
+ * 创建后线程安全。
+ */
+public class RankJsonWriter<V> {
+    private static final byte[] RANK_FIELD = "{\"rank\":".getBytes(StandardCharsets.UTF_8);
+    /**
+     * 线程缓冲区超过该大小时用完即丢弃，一次大分页不会让每个线程长期占用大数组
+     */
+    static final int MAX_RETAINED_CAPACITY = 256 * 1024;
+
+    private final RankFieldWriter<V>[] fieldWriters;
+    private final byte[][] fieldNames;
+    private final ThreadLocal<JsonByteBuffer> buffers = ThreadLocal.withInitial(JsonByteBuffer::new);
+
+    /**
+     * 写出一个字段的值
+     */
+    @FunctionalInterface
+    public interface RankFieldWriter<V> {
+        void write(V value, JsonByteBuffer out);
+    }
+
+    @SuppressWarnings("unchecked")
+    private RankJsonWriter(List<String> names, List<RankFieldWriter<V>> writers) {
+        this.fieldWriters = writers.toArray(new RankFieldWriter[0]);
+        this.fieldNames = new byte[names.size()][];
+        for (int i = 0; i < names.size(); i++) {
+            //字段名在这里转义一次，之后原样写入
+            JsonByteBuffer name = new JsonByteBuffer(64);
+            name.writeByte(',').writeString(names.get(i)).writeByte(':');
+            fieldNames[i] = name.toByteArray();
+        }
+    }
+
+    public static <V> Builder<V> builder() {
+        return new Builder<>();
+    }
+
+    /**
+     * 把排名在 fromInclusive 到 toExclusive 之间的数据追加到out
+     *
+     * @return 写入的行数
+     */
+    public int write(RedBlackTreeRankImpl<?, V> rank, int fromInclusive, int toExclusive, JsonByteBuffer out) {
+        out.writeByte('[');
+        int rows = rank.rankRangeForEach(fromInclusive, toExclusive, (value, r) -> {
+            if (r != fromInclusive) {
+                out.writeByte(',');
+            }
+            writeRow(value, r, out);
+        });
+        out.writeByte(']');
+        return rows;
+    }
+
+    /**
+     * 序列化后写入out，out不会被关闭
+     *
+     * @return 写入的行数
+     */
+    public int write(RedBlackTreeRankImpl<?, V> rank, int fromInclusive, int toExclusive, OutputStream out) throws IOException {
+        JsonByteBuffer buffer = buffers.get().reset();
+        try {
+            int rows = write(rank, fromInclusive, toExclusive, buffer);
+            buffer.writeTo(out);
+            return rows;
+        } finally {
+            release(buffer);
+        }
+    }
+
+    public byte[] toBytes(RedBlackTreeRankImpl<?, V> rank, int fromInclusive, int toExclusive) {
+        JsonByteBuffer buffer = buffers.get().reset();
+        try {
+            write(rank, fromInclusive, toExclusive, buffer);
+            return buffer.toByteArray();
+        } finally {
+            release(buffer);
+        }
+    }
+
+    private void release(JsonByteBuffer buffer) {
+        if (buffer.capacity() > MAX_RETAINED_CAPACITY) {
+            buffers.remove();
+        }
+    }
+
+    /**
+     * 当前线程缓冲区的大小，测试用
+     */
+    int bufferCapacity() {
+        return buffers.get().capacity();
+    }
+
+    private void writeRow(V value, int r, JsonByteBuffer out) {
+        out.writeRaw(RANK_FIELD).writeLong(r);
+        for (int i = 0; i < fieldWriters.length; i++) {
+            out.writeRaw(fieldNames[i]);
+            fieldWriters[i].write(value, out);
+        }
+        out.writeByte('}');
+    }
+
+    public static final class Builder<V> {
+        private final List<String> names = new ArrayList<>();
+        private final List<RankFieldWriter<V>> writers = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        public Builder<V> field(String name, RankFieldWriter<V> writer) {
+            if ("rank".equals(name) || names.contains(name)) {
+                throw new RuntimeException("字段名重复 name:" + name);
+            }
+            names.add(name);
+            writers.add(writer);
+            return this;
+        }
+
+        public Builder<V> longField(String name, ToLongFunction<V> getter) {
+            return field(name, (value, out) -> out.writeLong(getter.applyAsLong(value)));
+        }
+
+        public Builder<V> doubleField(String name, ToDoubleFunction<V> getter) {
+            return field(name, (value, out) -> out.writeDouble(getter.applyAsDouble(value)));
+        }
+
+        public Builder<V> stringField(String name, Function<V, ? extends CharSequence> getter) {
+            return field(name, (value, out) -> out.writeString(getter.apply(value)));
+        }
+
+        public RankJsonWriter<V> build() {
+            return new RankJsonWriter<>(names, writers);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.lez.rank;
+
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.lib.jse.CoerceJavaToLua;
+import org.luaj.vm2.lib.jse.CoerceLuaToJava;
+
+/**
+ * 排行榜的key和value与lua值之间的转换
+ */
+public interface RankScriptCodec<K, V> {
+
+    LuaValue encodeKey(K key);
+
+    K decodeKey(LuaValue value);
+
+    LuaValue encodeValue(V value);
+
+    V decodeValue(LuaValue value);
+
+    /**
+     * 使用luaj的java对象转换：数字、字符串转成lua的基本类型，其他对象作为userdata，
+     * 脚本中可以直接调用其方法，如 v:getRankScore()
+     */
+    static <K, V> RankScriptCodec<K, V> coerce(Class<K> keyType, Class<V> valueType) {
+        return new RankScriptCodec<K, V>() {
+            @Override
+            public LuaValue encodeKey(K key) {
+                return CoerceJavaToLua.coerce(key);
+            }
+
+            @Override
+            public K decodeKey(LuaValue value) {
+                return keyType.cast(CoerceLuaToJava.coerce(value, keyType));
+            }
+
+            @Override
+            public LuaValue encodeValue(V value) {
+                return CoerceJavaToLua.coerce(value);
+            }
+
+            @Override
+            public V decodeValue(LuaValue value) {
+                return valueType.cast(CoerceLuaToJava.coerce(value, valueType));
+            }
+        };
+    }
+}
@@ -0,0 +1,435 @@
+package com.lez.rank;
+
+import com.google.common.io.BaseEncoding;
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LoadState;
+import org.luaj.vm2.LuaClosure;
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Prototype;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.compiler.LuaC;
+import org.luaj.vm2.lib.Bit32Lib;
+import org.luaj.vm2.lib.DebugLib;
+import org.luaj.vm2.lib.OneArgFunction;
+import org.luaj.vm2.lib.PackageLib;
+import org.luaj.vm2.lib.StringLib;
+import org.luaj.vm2.lib.TableLib;
+import org.luaj.vm2.lib.TwoArgFunction;
+import org.luaj.vm2.lib.VarArgFunction;
+import org.luaj.vm2.lib.jse.CoerceJavaToLua;
+import org.luaj.vm2.lib.jse.JseBaseLib;
+import org.luaj.vm2.lib.jse.JseMathLib;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * 在排行榜上原子地执行lua脚本，类似redis的EVAL/EVALSHA
+ * <p>
+ * 脚本编译后按sha1缓存。执行时按注册顺序一次性获取本次涉及的所有排行榜的写锁，
+ * 脚本内的多个操作都在这一次加锁内完成。脚本中可用的全局变量：
+ * <ul>
+ * <li>BOARDS：本次执行声明的排行榜名字，脚本只能访问这些排行榜</li>
+ * <li>ARGV：执行时传入的参数</li>
+ * <li>rank：排行榜操作，get、getRank、size、rankIn、rankRange、put、remove、incrementScore，
+ * 第一个参数都是排行榜名字</li>
+ * </ul>
+ * 脚本运行在只包含base、string、table、math、bit32库的环境中，没有io、os、luajava和load。
+ * 每次执行都使用新的全局变量表，库和rank都是只读的，脚本留下的全局变量和对库的修改不会影响之后的脚本。
+ * 字符串的元表是luaj全进程共享的，执行器不修改它，脚本中getmetatable对字符串返回nil。
+ * 使用{@link RankScriptCodec#coerce}时脚本可以调用value对象的方法，所以脚本应当是服务端自己的代码
+ * <p>
+ * 脚本执行期间一直持有排行榜的写锁，执行的指令数超过maxInstructions时脚本被终止。
+ * 脚本没有回滚：出错或被终止时，之前已经执行的写操作仍然保留
+ */
+public class RankScriptExecutor<K, V> {
+    private final RankScriptCodec<K, V> codec;
+    private final ObjLongConsumer<V> scoreAdder;
+    private final long maxInstructions;
+
+    private final Map<String, Board<K, V>> boards = new ConcurrentHashMap<>();
+    private final AtomicInteger boardIndex = new AtomicInteger();
+    private final Map<String, Prototype> scripts = new ConcurrentHashMap<>();
+    private final ThreadLocal<ScriptRuntime> runtimes = ThreadLocal.withInitial(ScriptRuntime::new);
+
+    public static final long DEFAULT_MAX_INSTRUCTIONS = 1000000;
+
+    /**
+     * @param scoreAdder 脚本中incrementScore使用的加分方法，为null时脚本不能调用incrementScore
+     */
+    public RankScriptExecutor(RankScriptCodec<K, V> codec, ObjLongConsumer<V> scoreAdder) {
+        this(codec, scoreAdder, DEFAULT_MAX_INSTRUCTIONS);
+    }
+
+    /**
+     * @param maxInstructions 一次执行最多执行的lua指令数
+     */
+    public RankScriptExecutor(RankScriptCodec<K, V> codec, ObjLongConsumer<V> scoreAdder, long maxInstructions) {
+        if (maxInstructions < 1) {
+            throw new RuntimeException("错误参数 maxInstructions:" + maxInstructions);
+        }
+        this.codec = codec;
+        this.scoreAdder = scoreAdder;
+        this.maxInstructions = maxInstructions;
+    }
+
+    /**
+     * 注册排行榜。同一个排行榜只应注册到一个执行器上，否则不同执行器之间的加锁顺序无法保证
+     */
+    public void register(String name, RedBlackTreeRankImpl<K, V> rank) {
+        if (!rank.isReentrant()) {
+            throw new RuntimeException("脚本需要可重入的写锁，不能注册乐观读模式的排行榜 name:" + name);
+        }
+        Board<K, V> board = new Board<>(name, rank, boardIndex.getAndIncrement());
+        if (boards.putIfAbsent(name, board) != null) {
+            throw new RuntimeException("排行榜已经注册 name:" + name);
+        }
+    }
+
+    /**
+     * 编译并缓存脚本
+     *
+     * @return 脚本的sha1，用于evalSha
+     */
+    public String load(String script) {
+        String sha = sha1(script);
+        if (!scripts.containsKey(sha)) {
+            try {
+                scripts.putIfAbsent(sha, runtimes.get().globals.compilePrototype(new StringReader(script), "script_" + sha));
+            } catch (IOException | LuaError e) {
+                throw new RuntimeException("脚本编译错误 sha:" + sha, e);
+            }
+        }
+        return sha;
+    }
+
+    public boolean exists(String sha) {
+        return scripts.containsKey(sha);
+    }
+
+    /**
+     * 编译（已编译过则直接使用缓存）并执行脚本
+     */
+    public Object eval(String script, List<String> boardNames, Object... args) {
+        return evalSha(load(script), boardNames, args);
+    }
+
+    /**
+     * 执行已经load过的脚本
+     *
+     * @param boardNames 脚本要访问的排行榜
+     * @param args       脚本参数，在脚本中为ARGV
+     * @return 脚本返回值转换后的java对象：nil为null，整数为Integer，其他数字为Double，
+     * key都是1到#t的整数的table转为List，否则整个table转为Map，其余为对应的java对象
+     */
+    public Object evalSha(String sha, List<String> boardNames, Object... args) {
+        Prototype prototype = scripts.get(sha);
+        if (prototype == null) {
+            throw new RuntimeException("脚本不存在 sha:" + sha);
+        }
+
+        List<Board<K, V>> locked = new ArrayList<>(boardNames.size());
+        for (String name : boardNames) {
+            Board<K, V> board = boards.get(name);
+            if (board == null) {
+                throw new RuntimeException("排行榜未注册 name:" + name);
+            }
+            if (!locked.contains(board)) {
+                locked.add(board);
+            }
+        }
+        locked.sort(Comparator.comparingInt(b -> b.index));
+
+        ScriptRuntime runtime = runtimes.get();
+        int lockedNum = 0;
+        try {
+            for (Board<K, V> board : locked) {
+                board.rank.getWriteLock().lock();
+                lockedNum++;
+            }
+            LuaTable env = runtime.bind(locked, boardNames, args);
+            return toJava(new LuaClosure(prototype, env).call());
+        } catch (LuaError e) {
+            throw new RuntimeException("脚本执行错误 sha:" + sha, e);
+        } finally {
+            runtime.unbind();
+            for (int i = lockedNum - 1; i >= 0; i--) {
+                locked.get(i).rank.getWriteLock().unlock();
+            }
+        }
+    }
+
+    private static Object toJava(LuaValue value) {
+        switch (value.type()) {
+            case LuaValue.TNIL:
+                return null;
+            case LuaValue.TBOOLEAN:
+                return value.toboolean();
+            case LuaValue.TNUMBER:
+                return value.isinttype() ? (Object) value.toint() : (Object) value.todouble();
+            case LuaValue.TSTRING:
+                return value.tojstring();
+            case LuaValue.TTABLE:
+                LuaTable table = value.checktable();
+                int length = table.length();
+                Map<Object, Object> map = new LinkedHashMap<>();
+                boolean array = length > 0;
+                LuaValue k = LuaValue.NIL;
+                while (true) {
+                    Varargs next = table.next(k);
+                    if ((k = next.arg1()).isnil()) {
+                        break;
+                    }
+                    array &= k.isinttype() && k.toint() >= 1 && k.toint() <= length;
+                    map.put(toJava(k), toJava(next.arg(2)));
+                }
+                //key都在1到length之间时为数组（中间可以有nil），同时有数组和哈希部分时整个table转为Map
+                if (array) {
+                    List<Object> list = new ArrayList<>(length);
+                    for (int i = 1; i <= length; i++) {
+                        list.add(map.get(i));
+                    }
+                    return list;
+                }
+                return map;
+            case LuaValue.TUSERDATA:
+                return value.touserdata();
+            default:
+                return value.tojstring();
+        }
+    }
+
+    private static String sha1(String script) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(script.getBytes(StandardCharsets.UTF_8));
+            return BaseEncoding.base16().lowerCase().encode(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static final class Board<K, V> {
+        final String name;
+        final RedBlackTreeRankImpl<K, V> rank;
+        final int index;
+
+        Board(String name, RedBlackTreeRankImpl<K, V> rank, int index) {
+            this.name = name;
+            this.rank = rank;
+            this.index = index;
+        }
+    }
+
+    /**
+     * 脚本可以访问的库，每次执行时包装成只读的表
+     */
+    private static final String[] LIBRARIES = {"string", "table", "math", "bit32"};
+
+    /**
+     * 每个线程一份的lua运行环境，Globals不是线程安全的
+     * <p>
+     * globals只保存库，脚本不直接使用它：每次执行创建新的全局变量表，读取不到的名字再到globals中查找
+     */
+    private final class ScriptRuntime {
+        final Globals globals = new Globals();
+        private final LuaTable rankLib = new LuaTable();
+        private final InstructionLimit instructionLimit = new InstructionLimit();
+        private final Map<String, Board<K, V>> bound = new HashMap<>();
+
+        ScriptRuntime() {
+            globals.load(new JseBaseLib());
+            globals.load(new PackageLib());
+            globals.load(new Bit32Lib());
+            globals.load(new TableLib());
+            globals.load(new StringLib());
+            globals.load(new JseMathLib());
+            globals.load(instructionLimit);
+            LoadState.install(globals);
+            LuaC.install(globals);
+            globals.set("dofile", LuaValue.NIL);
+            globals.set("loadfile", LuaValue.NIL);
+            //load编译的代码默认使用globals作为全局变量表，会绕过每次执行的新环境
+            globals.set("load", LuaValue.NIL);
+            globals.set("loadstring", LuaValue.NIL);
+            globals.set("require", LuaValue.NIL);
+            globals.set("package", LuaValue.NIL);
+            globals.set("debug", LuaValue.NIL);
+            //字符串的元表LuaString.s_metatable是整个进程共享的，不能修改；只让脚本取不到它
+            LuaValue getmetatable = globals.get("getmetatable");
+            globals.set("getmetatable", new OneArgFunction() {
+                @Override
+                public LuaValue call(LuaValue value) {
+                    return value.type() == LuaValue.TSTRING ? LuaValue.NIL : getmetatable.call(value);
+                }
+            });
+
+            LuaTable lib = rankLib;
+            lib.set("get", new RankFunction() {
+                @Override
+                Varargs invoke(RedBlackTreeRankImpl<K, V> rank, Varargs args) {
+                    V value = rank.get(codec.decodeKey(args.arg(2)));
+                    return value == null ? LuaValue.NIL : codec.encodeValue(value);
+                }
+            });
+            lib.set("getRank", new RankFunction() {
+                @Override
+                Varargs invoke(RedBlackTreeRankImpl<K, V> rank, Varargs args) {
+                    Integer r = rank.getRank(codec.decodeKey(args.arg(2)));
+                    return r == null ? LuaValue.NIL : LuaValue.valueOf(r);
+                }
+            });
+            lib.set("size", new RankFunction() {
+                @Override
+                Varargs invoke(RedBlackTreeRankImpl<K, V> rank, Varargs args) {
+                    return LuaValue.valueOf(rank.rankSize());
+                }
+            });
+            lib.set("rankIn", new RankFunction() {
+                @Override
+                Varargs invoke(RedBlackTreeRankImpl<K, V> rank, Varargs args) {
+                    K key = rank.rankIn(args.checkint(2));
+                    return key == null ? LuaValue.NIL : codec.encodeKey(key);
+                }
+            });
+            lib.set("rankRange", new RankFunction() {
+                @Override
+                Varargs invoke(RedBlackTreeRankImpl<K, V> rank, Varargs args) {
+                    List<V> values = rank.rankRange(args.checkint(2), args.checkint(3));
+                    LuaTable table = new LuaTable(values.size(), 0);
+                    for (int i = 0; i < values.size(); i++) {
+                        table.set(i + 1, codec.encodeValue(values.get(i)));
+                    }
+                    return table;
+                }
+            });
+            lib.set("put", new RankFunction() {
+                @Override
+                Varargs invoke(RedBlackTreeRankImpl<K, V> rank, Varargs args) {
+                    V old = rank.put(codec.decodeKey(args.arg(2)), codec.decodeValue(args.arg(3)));
+                    return old == null ? LuaValue.NIL : codec.encodeValue(old);
+                }
+            });
+            lib.set("remove", new RankFunction() {
+                @Override
+                Varargs invoke(RedBlackTreeRankImpl<K, V> rank, Varargs args) {
+                    V old = rank.remove(codec.decodeKey(args.arg(2)));
+                    return old == null ? LuaValue.NIL : codec.encodeValue(old);
+                }
+            });
+            lib.set("incrementScore", new RankFunction() {
+                @Override
+                Varargs invoke(RedBlackTreeRankImpl<K, V> rank, Varargs args) {
+                    if (scoreAdder == null) {
+                        throw new LuaError("未设置scoreAdder，不能调用incrementScore");
+                    }
+                    Integer r = rank.incrementScore(codec.decodeKey(args.arg(2)), args.checklong(3), scoreAdder);
+                    return r == null ? LuaValue.NIL : LuaValue.valueOf(r);
+                }
+            });
+        }
+
+        /**
+         * @return 本次执行的全局变量表
+         */
+        LuaTable bind(List<Board<K, V>> locked, List<String> boardNames, Object[] args) {
+            for (Board<K, V> board : locked) {
+                bound.put(board.name, board);
+            }
+            LuaTable names = new LuaTable(boardNames.size(), 0);
+            for (int i = 0; i < boardNames.size(); i++) {
+                names.set(i + 1, LuaValue.valueOf(boardNames.get(i)));
+            }
+            LuaTable argv = new LuaTable(args.length, 0);
+            for (int i = 0; i < args.length; i++) {
+                argv.set(i + 1, CoerceJavaToLua.coerce(args[i]));
+            }
+            //LuaClosure只在环境是Globals时调用debuglib的指令钩子
+            Globals env = new Globals();
+            env.debuglib = instructionLimit;
+            env.setmetatable(protectedMeta(globals));
+            env.set("_G", env);
+            for (String name : LIBRARIES) {
+                env.set(name, readOnly(globals.get(name)));
+            }
+            env.set("rank", readOnly(rankLib));
+            env.set("BOARDS", names);
+            env.set("ARGV", argv);
+            instructionLimit.remaining = maxInstructions;
+            return env;
+        }
+
+        void unbind() {
+            bound.clear();
+        }
+
+        /**
+         * 只读的代理表，元表也无法通过getmetatable取得
+         */
+        private LuaTable readOnly(LuaValue table) {
+            LuaTable meta = protectedMeta(table);
+            meta.set(LuaValue.NEWINDEX, new TwoArgFunction() {
+                @Override
+                public LuaValue call(LuaValue t, LuaValue key) {
+                    throw new LuaError("只读的表不能修改 key:" + key);
+                }
+            });
+            LuaTable proxy = new LuaTable();
+            proxy.setmetatable(meta);
+            return proxy;
+        }
+
+        private LuaTable protectedMeta(LuaValue index) {
+            LuaTable meta = new LuaTable();
+            meta.set(LuaValue.INDEX, index);
+            meta.set(LuaValue.METATABLE, LuaValue.FALSE);
+            return meta;
+        }
+
+        /**
+         * 第一个参数为排行榜名字的脚本函数，只能访问本次执行声明过的排行榜
+         */
+        private abstract class RankFunction extends VarArgFunction {
+            @Override
+            public Varargs invoke(Varargs args) {
+                String name = args.checkjstring(1);
+                Board<K, V> board = bound.get(name);
+                if (board == null) {
+                    throw new LuaError("排行榜未在本次执行中声明 name:" + name);
+                }
+                try {
+                    return invoke(board.rank, args);
+                } catch (LuaError e) {
+                    throw e;
+                } catch (RuntimeException e) {
+                    throw new LuaError(e);
+                }
+            }
+
+            abstract Varargs invoke(RedBlackTreeRankImpl<K, V> rank, Varargs args);
+        }
+    }
+
+    /**
+     * 统计执行的指令数，超过上限后每条指令都抛出错误，pcall也无法继续执行
+     */
+    private final class InstructionLimit extends DebugLib {
+        long remaining;
+
+        @Override
+        public void onInstruction(int pc, Varargs v, int top) {
+            if (--remaining < 0) {
+                throw new LuaError("脚本执行的指令数超过上限 maxInstructions:" + maxInstructions);
+            }
+            super.onInstruction(pc, v, top);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package com.lez.rank;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+/**
+ * 排行榜查询的异步servlet
+ * <p>
+ * 请求：
+ * <ul>
+ * <li>GET ?board=名字&from=1&to=101：排名区间的json，格式见{@link RankJsonWriter}</li>
+ * <li>GET ?board=名字&op=rank&key=关键字：{"rank":排名}，不在榜上时为{"rank":null}</li>
+ * </ul>
+ * 查询在executor中执行，不占用容器线程。排名区间的响应按排行榜的{@link RedBlackTreeRankImpl#version()}
+ * 缓存编码好的字节，版本没有变化时直接返回缓存，缓存满时淘汰最久没有访问的页。
+ * ETag由servlet实例的启动标识、排行榜名字和版本组成，重启或换排行榜后版本号重复也不会误判，If-None-Match一致时返回304。
+ * <p>
+ * 使用Servlet 3.0的ServletContext.addServlet注册，并调用setAsyncSupported(true)
+ */
+public class RankServlet extends HttpServlet {
+    private static final String CONTENT_TYPE = "application/json;charset=UTF-8";
+    public static final int DEFAULT_MAX_PAGE_SIZE = 1000;
+    public static final int DEFAULT_MAX_CACHED_PAGES = 1024;
+
+    private final Executor executor;
+    private final int maxPageSize;
+    private final int maxCachedPages;
+    private final Map<String, Board<?, ?>> boards = new ConcurrentHashMap<>();
+    private final Map<PageKey, CachedPage> pages;
+    /**
+     * 每个实例随机生成，版本号从0开始计数，重启后不能和之前的ETag混淆
+     */
+    private final String bootId = Long.toHexString(ThreadLocalRandom.current().nextLong());
+
+    public RankServlet(Executor executor) {
+        this(executor, DEFAULT_MAX_PAGE_SIZE, DEFAULT_MAX_CACHED_PAGES);
+    }
+
+    /**
+     * @param maxPageSize    一次最多查询的条数
+     * @param maxCachedPages 最多缓存的页数，超过后淘汰最久没有访问的页
+     */
+    public RankServlet(Executor executor, int maxPageSize, int maxCachedPages) {
+        this.executor = executor;
+        this.maxPageSize = maxPageSize;
+        this.maxCachedPages = maxCachedPages;
+        this.pages = Collections.synchronizedMap(new LinkedHashMap<PageKey, CachedPage>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PageKey, CachedPage> eldest) {
+                return size() > RankServlet.this.maxCachedPages;
+            }
+        });
+    }
+
+    /**
+     * @param keyParser 把请求参数中的key转换为排行榜的关键字
+     */
+    public <K, V> void register(String name, RedBlackTreeRankImpl<K, V> rank, RankJsonWriter<V> jsonWriter, Function<String, K> keyParser) {
+        if (boards.putIfAbsent(name, new Board<>(name, etagPrefix(name), rank, jsonWriter, keyParser)) != null) {
+            throw new RuntimeException("排行榜已经注册 name:" + name);
+        }
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        String name = req.getParameter("board");
+        Board<?, ?> board = name == null ? null : boards.get(name);
+        if (board == null) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND, "unknown board");
+            return;
+        }
+
+        if ("rank".equals(req.getParameter("op"))) {
+            String key = req.getParameter("key");
+            if (key == null) {
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "missing key");
+                return;
+            }
+            rank(req, resp, board, key);
+            return;
+        }
+
+        int from;
+        int to;
+        try {
+            from = intParameter(req, "from", 1);
+            to = intParameter(req, "to", from + 100);
+        } catch (NumberFormatException e) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "bad from/to");
+            return;
+        }
+        if (from < 1 || to <= from || to - from > maxPageSize) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "bad from/to");
+            return;
+        }
+
+        //版本没变时不进入异步处理，直接返回304
+        String etag = board.etag(board.rank.version());
+        if (etag.equals(req.getHeader("If-None-Match"))) {
+            resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            resp.setHeader("ETag", etag);
+            return;
+        }
+
+        PageKey pageKey = new PageKey(name, from, to);
+        dispatch(req, resp, () -> {
+            CachedPage page = page(board, pageKey);
+            writeBody(resp, page.body, page.etag);
+        });
+    }
+
+    private <K> void rank(HttpServletRequest req, HttpServletResponse resp, Board<K, ?> board, String key) throws IOException {
+        K k;
+        try {
+            k = board.keyParser.apply(key);
+        } catch (IllegalArgumentException e) {
+            //NumberFormatException等key格式错误是客户端的问题
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "bad key");
+            return;
+        }
+        dispatch(req, resp, () -> writeBody(resp, board.rankJson(k), null));
+    }
+
+    /**
+     * 获取缓存的页，版本变化或者没有缓存时重新序列化
+     */
+    private CachedPage page(Board<?, ?> board, PageKey pageKey) {
+        long version = board.rank.version();
+        CachedPage page = pages.get(pageKey);
+        if (page != null && page.version == version) {
+            return page;
+        }
+
+        byte[] body = board.rangeJson(pageKey.from, pageKey.to);
+        if (board.rank.version() != version) {
+            //序列化期间发生了写入，body的版本不确定，不缓存也不返回ETag
+            return new CachedPage(-1, body, null);
+        }
+        page = new CachedPage(version, body, board.etag(version));
+        pages.put(pageKey, page);
+        return page;
+    }
+
+    private void dispatch(HttpServletRequest req, HttpServletResponse resp, IoTask task) throws IOException {
+        AsyncContext asyncContext = req.startAsync();
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    try {
+                        resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                    } catch (IOException | IllegalStateException ignored) {
+                        //响应已经提交或连接已断开
+                    }
+                } finally {
+                    asyncContext.complete();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            asyncContext.complete();
+        }
+    }
+
+    private static void writeBody(HttpServletResponse resp, byte[] body, String etag) throws IOException {
+        resp.setStatus(HttpServletResponse.SC_OK);
+        resp.setContentType(CONTENT_TYPE);
+        if (etag != null) {
+            resp.setHeader("ETag", etag);
+        }
+        resp.setContentLength(body.length);
+        resp.getOutputStream().write(body);
+    }
+
+    /**
+     * ETag中版本号之前的部分，排行榜名字编码后只包含ETag允许的字符
+     */
+    private String etagPrefix(String name) {
+        try {
+            return "\"" + bootId + "-" + URLEncoder.encode(name, "UTF-8") + "-";
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 缓存中是否有这一页，测试用
+     */
+    boolean isCached(String board, int from, int to) {
+        return pages.containsKey(new PageKey(board, from, to));
+    }
+
+    private static int intParameter(HttpServletRequest req, String name, int defaultValue) {
+        String value = req.getParameter(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    @FunctionalInterface
+    private interface IoTask {
+        void run() throws IOException;
+    }
+
+    private static final class Board<K, V> {
+        final String name;
+        final String etagPrefix;
+        final RedBlackTreeRankImpl<K, V> rank;
+        final RankJsonWriter<V> jsonWriter;
+        final Function<String, K> keyParser;
+
+        Board(String name, String etagPrefix, RedBlackTreeRankImpl<K, V> rank, RankJsonWriter<V> jsonWriter, Function<String, K> keyParser) {
+            this.name = name;
+            this.etagPrefix = etagPrefix;
+            this.rank = rank;
+            this.jsonWriter = jsonWriter;
+            this.keyParser = keyParser;
+        }
+
+        byte[] rangeJson(int from, int to) {
+            return jsonWriter.toBytes(rank, from, to);
+        }
+
+        String etag(long version) {
+            return etagPrefix + version + "\"";
+        }
+
+        byte[] rankJson(K key) {
+            Integer r = rank.getRank(key);
+            return ("{\"rank\":" + r + "}").getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private static final class PageKey {
+        final String board;
+        final int from;
+        final int to;
+
+        PageKey(String board, int from, int to) {
+            this.board = board;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            PageKey pageKey = (PageKey) o;
+            return from == pageKey.from && to == pageKey.to && board.equals(pageKey.board);
+        }
+
+        @Override
+        public int hashCode() {
+            return (board.hashCode() * 31 + from) * 31 + to;
+        }
+    }
+
+    private static final class CachedPage {
+        final long version;
+        final byte[] body;
+        final String etag;
+
+        CachedPage(long version, byte[] body, String etag) {
+            this.version = version;
+            this.body = body;
+            this.etag = etag;
+        }
+    }
+}
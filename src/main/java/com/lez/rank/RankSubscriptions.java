@@ -0,0 +1,290 @@
+package com.lez.rank;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 排名变化的订阅，代替客户端定时轮询rankRange
+ * <p>
+ * 写排行榜时只把变化的排名范围合并到整个排行榜的一个脏标记里，和订阅数量无关；
+ * executor中的分发任务再判断每个订阅是否受影响，受影响的订阅标记为脏并安排一次推送。
+ * 推送时读取一次订阅范围的快照，和上次成功推送的快照比较，得到进入、离开、移动的关键字。
+ * 每个订阅同时最多只有一次推送在执行，推送期间的多次修改合并为下一次推送，
+ * 所以读排行榜的次数和修改次数相关，和订阅者数量、订阅者的处理速度无关，写入方也不会被订阅者阻塞。
+ * 合并后的范围只能保守地判断，可能多读一次快照，但没有变化时不会推送。
+ * <p>
+ * 订阅后会先推送一次当前的全部数据（全部为进入）。订阅者处理推送时抛出异常，这次的变化会在下一次变化时一起补发。
+ * 同一个范围有很多客户端时，建议只订阅一次再分发
+ */
+public class RankSubscriptions<K, V> implements AutoCloseable {
+    /**
+     * 没有未分发的变化：低32位的最高排名为0，高32位的最低排名为Integer.MAX_VALUE
+     */
+    private static final long NO_CHANGE = (long) Integer.MAX_VALUE << 32;
+
+    private final RedBlackTreeRankImpl<K, V> rank;
+    private final Executor executor;
+    private final Function<V, K> keyExtractor;
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    /**
+     * 上次分发之后所有变化涉及的排名范围：高32位为最小的排名，低32位为最大的排名，删除或新增时最大排名为Integer.MAX_VALUE
+     */
+    private final AtomicLong changedRanks = new AtomicLong(NO_CHANGE);
+    private final AtomicBoolean dispatchScheduled = new AtomicBoolean();
+
+    private final AtomicLong deliveryCount = new AtomicLong();
+    private final AtomicLong failedDeliveryCount = new AtomicLong();
+
+    /**
+     * @param executor 执行推送的线程池，不要使用写排行榜的线程。乐观读模式的排行榜不可重入，
+     *                 在写入线程中推送会在读取快照时抛出异常
+     */
+    public RankSubscriptions(RedBlackTreeRankImpl<K, V> rank, Executor executor) {
+        this.rank = rank;
+        this.executor = executor;
+        this.keyExtractor = rank.getKeyExtractor();
+        rank.setChangeListener(this::onChange);
+    }
+
+    /**
+     * 订阅排名区间 fromInclusive 到 toExclusive
+     */
+    public Subscription subscribeRange(int fromInclusive, int toExclusive, Consumer<RankDiff<K>> consumer) {
+        if (fromInclusive < 1 || fromInclusive >= toExclusive) {
+            throw new RuntimeException("错误参数 fromInclusive：" + fromInclusive + "  toExclusive:" + toExclusive);
+        }
+        return add(new RangeSubscription(fromInclusive, toExclusive, consumer));
+    }
+
+    /**
+     * 订阅一组关键字的排名，关键字离开排行榜时为离开
+     */
+    public Subscription subscribeKeys(Collection<K> keys, Consumer<RankDiff<K>> consumer) {
+        if (keys.isEmpty()) {
+            throw new RuntimeException("keys 不能为空");
+        }
+        return add(new KeySubscription(keys, consumer));
+    }
+
+    /**
+     * 取消所有订阅，不再监听排行榜
+     */
+    @Override
+    public void close() {
+        rank.setChangeListener(null);
+        for (Subscription subscription : subscriptions) {
+            subscription.cancel();
+        }
+    }
+
+    public int getSubscriptionCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * 推送的次数，没有变化的推送不计入
+     */
+    public long getDeliveryCount() {
+        return deliveryCount.get();
+    }
+
+    /**
+     * 订阅者处理推送时抛出异常的次数
+     */
+    public long getFailedDeliveryCount() {
+        return failedDeliveryCount.get();
+    }
+
+    private Subscription add(Subscription subscription) {
+        subscriptions.add(subscription);
+        subscription.markDirty();
+        return subscription;
+    }
+
+    /**
+     * 在写锁内调用，只合并排名范围，和订阅数量无关
+     */
+    private void onChange(K key, int oldRank, int newRank) {
+        int low = oldRank == 0 ? newRank : newRank == 0 ? oldRank : Math.min(oldRank, newRank);
+        int high = oldRank == 0 || newRank == 0 ? Integer.MAX_VALUE : Math.max(oldRank, newRank);
+        changedRanks.getAndUpdate(c -> (long) Math.min((int) (c >>> 32), low) << 32 | Math.max((int) c, high));
+        if (!dispatchScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(this::dispatch);
+        } catch (RejectedExecutionException e) {
+            //保留变化范围，下次修改时重试
+            dispatchScheduled.set(false);
+        }
+    }
+
+    /**
+     * 在executor中把合并的变化分发给受影响的订阅
+     */
+    private void dispatch() {
+        //先清除标记，分发期间的修改会安排下一次分发
+        dispatchScheduled.set(false);
+        long changed = changedRanks.getAndSet(NO_CHANGE);
+        if (changed == NO_CHANGE) {
+            return;
+        }
+        int low = (int) (changed >>> 32);
+        int high = (int) changed;
+        for (Subscription subscription : subscriptions) {
+            if (subscription.affectedBy(low, high)) {
+                subscription.markDirty();
+            }
+        }
+    }
+
+    public abstract class Subscription {
+        private final Consumer<RankDiff<K>> consumer;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile boolean dirty;
+        private volatile boolean cancelled;
+        private Map<K, Integer> last = Collections.emptyMap();
+
+        Subscription(Consumer<RankDiff<K>> consumer) {
+            this.consumer = consumer;
+        }
+
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * 排名在[low, high]之间有变化时是否可能影响订阅，high为Integer.MAX_VALUE表示有数据新增或删除
+         */
+        abstract boolean affectedBy(int low, int high);
+
+        /**
+         * 读取订阅范围当前的快照：关键字 -> 排名
+         */
+        abstract Map<K, Integer> snapshot();
+
+        void markDirty() {
+            dirty = true;
+            schedule();
+        }
+
+        private void schedule() {
+            if (cancelled || !scheduled.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                executor.execute(this::deliver);
+            } catch (RejectedExecutionException e) {
+                //保留脏标记，下次修改时重试
+                scheduled.set(false);
+            }
+        }
+
+        private void deliver() {
+            try {
+                if (!cancelled && dirty) {
+                    dirty = false;
+                    Map<K, Integer> current = snapshot();
+                    RankDiff<K> diff = RankDiff.between(last, current);
+                    if (!diff.isEmpty()) {
+                        deliveryCount.incrementAndGet();
+                        consumer.accept(diff);
+                    }
+                    //处理成功后才更新，失败的变化下次和新的变化一起推送
+                    last = current;
+                }
+            } catch (RuntimeException e) {
+                failedDeliveryCount.incrementAndGet();
+            } finally {
+                scheduled.set(false);
+            }
+            //推送期间又有修改
+            if (dirty) {
+                schedule();
+            }
+        }
+    }
+
+    private final class RangeSubscription extends Subscription {
+        private final int from;
+        private final int to;
+
+        RangeSubscription(int from, int to, Consumer<RankDiff<K>> consumer) {
+            super(consumer);
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        boolean affectedBy(int low, int high) {
+            //只在区间前面移动不影响区间；进入或离开区间前面会使区间整体移动
+            return low < to && high >= from;
+        }
+
+        @Override
+        Map<K, Integer> snapshot() {
+            Map<K, Integer> current = new LinkedHashMap<>();
+            rank.rankRangeForEach(from, to, (value, r) -> current.put(keyExtractor.apply(value), r));
+            return current;
+        }
+    }
+
+    private final class KeySubscription extends Subscription {
+        private final List<K> keys;
+        /**
+         * 上次快照中最大的排名，排名不超过它的修改才可能影响榜上的关键字
+         */
+        private volatile int maxRank = Integer.MAX_VALUE;
+        /**
+         * 上次快照中有不在榜上的关键字，它们可能以任意排名进入
+         */
+        private volatile boolean missing = true;
+
+        KeySubscription(Collection<K> keys, Consumer<RankDiff<K>> consumer) {
+            super(consumer);
+            this.keys = new ArrayList<>(new HashSet<>(keys));
+        }
+
+        @Override
+        boolean affectedBy(int low, int high) {
+            return low <= maxRank || (missing && high == Integer.MAX_VALUE);
+        }
+
+        @Override
+        Map<K, Integer> snapshot() {
+            //快照期间的修改一律视为有影响
+            maxRank = Integer.MAX_VALUE;
+            missing = true;
+            int[] ranks = rank.getRanks(keys);
+            Map<K, Integer> current = new HashMap<>();
+            int max = 0;
+            for (int i = 0; i < ranks.length; i++) {
+                if (ranks[i] != 0) {
+                    current.put(keys.get(i), ranks[i]);
+                    max = Math.max(max, ranks[i]);
+                }
+            }
+            maxRank = max;
+            missing = current.size() < keys.size();
+            return current;
+        }
+    }
+}
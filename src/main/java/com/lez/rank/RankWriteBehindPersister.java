@@ -0,0 +1,322 @@
+package com.lez.rank;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * 排行榜的异步批量持久化（write-behind）
+ * <p>
+ * 修改排行榜后只把key记入脏集合，同一个key的多次修改合并为一次。后台线程按固定间隔，
+ * 或者脏key数达到batchSize时，读取key的最新数据并用JDBC批量upsert（数据已不在榜上时delete）。
+ * 达到batchSize时最多只安排一次后台刷新，每次刷新只写入开始时已有的脏key，刷新期间新增的留给下一次。
+ * 脏key数达到maxPendingKeys时，写入方会阻塞等待，直到数据库追上为止。
+ * <p>
+ * dataSource建议使用c3p0的ComboPooledDataSource。upsertSql如MySQL的
+ * INSERT INTO rank (user_id, score) VALUES (?, ?) ON DUPLICATE KEY UPDATE score = VALUES(score)
+ */
+public class RankWriteBehindPersister<K, V> implements AutoCloseable {
+
+    /**
+     * 设置upsert和delete语句的参数
+     */
+    public interface RowBinder<K, V> {
+        void bindUpsert(PreparedStatement ps, K key, V value) throws SQLException;
+
+        void bindDelete(PreparedStatement ps, K key) throws SQLException;
+    }
+
+    private final RedBlackTreeRankImpl<K, V> rank;
+    private final DataSource dataSource;
+    private final String upsertSql;
+    private final String deleteSql;
+    private final RowBinder<K, V> binder;
+    private final int batchSize;
+    private final int maxPendingKeys;
+
+    private final Set<K> dirtyKeys = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService scheduler;
+    private final Lock flushLock = new ReentrantLock();
+    private final Lock pendingLock = new ReentrantLock();
+    private final Condition notFull = pendingLock.newCondition();
+    /**
+     * 已经安排了一次立即刷新，刷新开始时清除
+     */
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private volatile boolean closed;
+
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong failedFlushCount = new AtomicLong();
+    private final AtomicLong flushedRows = new AtomicLong();
+    private volatile long lastFlushMillis;
+    private volatile long maxFlushMillis;
+    private volatile int lastFlushRows;
+    private volatile SQLException lastError;
+
+    /**
+     * @param batchSize       每批写入的行数，脏key数达到该值时立即刷新
+     * @param flushIntervalMs 定时刷新的间隔
+     * @param maxPendingKeys  脏key数的上限，达到后写入方阻塞
+     */
+    public RankWriteBehindPersister(RedBlackTreeRankImpl<K, V> rank, DataSource dataSource, String upsertSql, String deleteSql,
+                                    RowBinder<K, V> binder, int batchSize, long flushIntervalMs, int maxPendingKeys) {
+        if (batchSize < 1 || maxPendingKeys < batchSize || flushIntervalMs < 1) {
+            throw new RuntimeException("错误参数 batchSize:" + batchSize + " maxPendingKeys:" + maxPendingKeys + " flushIntervalMs:" + flushIntervalMs);
+        }
+        this.rank = rank;
+        this.dataSource = dataSource;
+        this.upsertSql = upsertSql;
+        this.deleteSql = deleteSql;
+        this.binder = binder;
+        this.batchSize = batchSize;
+        this.maxPendingKeys = maxPendingKeys;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "rank-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public V put(K key, V value) {
+        V old = rank.put(key, value);
+        markDirty(key);
+        return old;
+    }
+
+    public V remove(K key) {
+        V old = rank.remove(key);
+        if (old != null) {
+            markDirty(key);
+        }
+        return old;
+    }
+
+    public Integer incrementScore(K key, long delta, ObjLongConsumer<V> scoreAdder) {
+        Integer r = rank.incrementScore(key, delta, scoreAdder);
+        if (r != null) {
+            markDirty(key);
+        }
+        return r;
+    }
+
+    /**
+     * 记录key需要持久化。直接修改排行榜后调用
+     */
+    public void markDirty(K key) {
+        if (closed) {
+            throw new RuntimeException("persister 已关闭");
+        }
+        if (dirtyKeys.size() >= maxPendingKeys && !dirtyKeys.contains(key)) {
+            awaitNotFull();
+        }
+        dirtyKeys.add(key);
+        if (dirtyKeys.size() >= batchSize) {
+            scheduleFlush();
+        }
+    }
+
+    private void scheduleFlush() {
+        if (closed || !flushScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            scheduler.execute(() -> {
+                flushScheduled.set(false);
+                flushQuietly();
+            });
+        } catch (RejectedExecutionException e) {
+            //和close()并发，close()会写入剩余的脏key
+            flushScheduled.set(false);
+        }
+    }
+
+    private void awaitNotFull() {
+        pendingLock.lock();
+        try {
+            while (dirtyKeys.size() >= maxPendingKeys && !closed) {
+                scheduleFlush();
+                notFull.await(100, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("等待持久化时被中断", e);
+        } finally {
+            pendingLock.unlock();
+        }
+    }
+
+    /**
+     * 立即把调用时已有的脏key分批写入数据库，写入期间新增的脏key留给下一次刷新，
+     * 所以写入方持续修改时也能返回
+     *
+     * @return 写入的行数
+     */
+    public int flush() throws SQLException {
+        flushLock.lock();
+        try {
+            int rows = 0;
+            int limit = dirtyKeys.size();
+            long start = System.nanoTime();
+            while (rows < limit && !dirtyKeys.isEmpty()) {
+                rows += flushBatch(Math.min(batchSize, limit - rows));
+                signalNotFull();
+            }
+            if (rows > 0) {
+                long cost = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                lastFlushMillis = cost;
+                if (cost > maxFlushMillis) {
+                    maxFlushMillis = cost;
+                }
+                lastFlushRows = rows;
+                flushCount.incrementAndGet();
+                flushedRows.addAndGet(rows);
+            }
+            return rows;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private int flushBatch(int maxRows) throws SQLException {
+        List<K> keys = new ArrayList<>(maxRows);
+        Iterator<K> iterator = dirtyKeys.iterator();
+        while (keys.size() < maxRows && iterator.hasNext()) {
+            K key = iterator.next();
+            iterator.remove();
+            keys.add(key);
+        }
+
+        try (Connection connection = dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (PreparedStatement upsert = connection.prepareStatement(upsertSql);
+                 PreparedStatement delete = connection.prepareStatement(deleteSql)) {
+                int upserts = 0;
+                int deletes = 0;
+                for (K key : keys) {
+                    //移出脏集合之后再读取，期间的修改会重新标记，下次刷新时写入
+                    V value = rank.get(key);
+                    if (value == null) {
+                        binder.bindDelete(delete, key);
+                        delete.addBatch();
+                        deletes++;
+                    } else {
+                        binder.bindUpsert(upsert, key, value);
+                        upsert.addBatch();
+                        upserts++;
+                    }
+                }
+                if (upserts > 0) {
+                    upsert.executeBatch();
+                }
+                if (deletes > 0) {
+                    delete.executeBatch();
+                }
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException | RuntimeException e) {
+            dirtyKeys.addAll(keys);
+            throw e;
+        }
+        return keys.size();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (SQLException | RuntimeException e) {
+            failedFlushCount.incrementAndGet();
+            lastError = e instanceof SQLException ? (SQLException) e : new SQLException(e);
+        }
+    }
+
+    private void signalNotFull() {
+        pendingLock.lock();
+        try {
+            notFull.signalAll();
+        } finally {
+            pendingLock.unlock();
+        }
+    }
+
+    /**
+     * 停止定时刷新并写入剩余的脏key
+     */
+    @Override
+    public void close() throws SQLException {
+        closed = true;
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        signalNotFull();
+        while (!dirtyKeys.isEmpty()) {
+            flush();
+        }
+    }
+
+    public int getPendingKeys() {
+        return dirtyKeys.size();
+    }
+
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    public long getFailedFlushCount() {
+        return failedFlushCount.get();
+    }
+
+    public long getFlushedRows() {
+        return flushedRows.get();
+    }
+
+    /**
+     * 上一次刷新耗时，一次刷新包括多批
+     */
+    public long getLastFlushMillis() {
+        return lastFlushMillis;
+    }
+
+    public long getMaxFlushMillis() {
+        return maxFlushMillis;
+    }
+
+    /**
+     * 上一次刷新写入的总行数，一次刷新包括多批，每批最多batchSize行
+     */
+    public int getLastFlushRows() {
+        return lastFlushRows;
+    }
+
+    /**
+     * 后台刷新最近一次失败的原因，没有失败时为null
+     */
+    public SQLException getLastError() {
+        return lastError;
+    }
+}
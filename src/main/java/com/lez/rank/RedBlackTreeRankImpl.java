@@ -1,10 +1,18 @@
 package com.lez.rank;
 
 import java.util.*;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
 import java.util.function.Function;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ObjLongConsumer;
+import java.util.stream.IntStream;
 
 /**
  * 基于红黑树实现的高效排行榜
@@ -17,27 +25,89 @@ public class RedBlackTreeRankImpl<K, V> {
     private final Function<V, V> valueCopier;
     private final Function<V, K> keyExtractor;
 
-    private final Map<K, Node<V>> keyMap = new HashMap<>();
+    /**
+     * 关键字索引：线性探测的开放寻址哈希表，槽位直接存放节点
+     */
+    private Node<K, V>[] table = newTable(16);
+    private int count;
 
-    private transient Node<V> root;
-    private final ReadWriteLock lock = new ReentrantReadWriteLock();
-    private final Lock readLock = lock.readLock();
-    private final Lock writeLock = lock.writeLock();
+    private transient Node<K, V> root;
+    /**
+     * 数据版本号，每次修改排行榜都会加一，只在写锁内修改
+     */
+    private volatile long version;
+    /**
+     * 乐观读模式下的锁，否则为null
+     */
+    private final StampedLock stampedLock;
+    private final Lock readLock;
+    private final Lock writeLock;
+    /**
+     * 乐观读模式下持有写锁的线程，用于发现回调中重入排行榜
+     */
+    private volatile Thread writer;
+    /**
+     * 乐观读模式下当前线程是否持有读锁，否则为null
+     */
+    private final ThreadLocal<boolean[]> readHeld;
+    /**
+     * 排名变化的监听者，在写锁内同步调用
+     */
+    private volatile ChangeListener<K> changeListener;
 
 
     public RedBlackTreeRankImpl(Comparator<V> comparator, Function<V, V> valueCopier, Function<V, K> keyExtractor) {
+        this(comparator, valueCopier, keyExtractor, false);
+    }
+
+    /**
+     * @param optimisticRead true：使用StampedLock，get、getRank、rankSize先不加锁读取，
+     *                       读取期间没有写入时直接返回，有写入时再加读锁重新读取。适合读远多于写的排行榜。
+     *                       StampedLock不可重入，这种模式下的排行榜不能注册到{@link RankScriptExecutor}；
+     *                       持有锁时执行的回调（incrementScore的scoreAdder、merge的remappingFunction、排名变化的监听者、
+     *                       rankRangeForEach的visitor）也不能再对这个排行榜加锁，否则抛出RuntimeException
+     */
+    public RedBlackTreeRankImpl(Comparator<V> comparator, Function<V, V> valueCopier, Function<V, K> keyExtractor, boolean optimisticRead) {
         this.comparator = comparator;
         this.valueCopier = valueCopier;
         this.keyExtractor = keyExtractor;
+        if (optimisticRead) {
+            stampedLock = new StampedLock();
+            readHeld = ThreadLocal.withInitial(() -> new boolean[1]);
+            readLock = new NonReentrantLock(stampedLock.asReadLock(), false);
+            writeLock = new NonReentrantLock(stampedLock.asWriteLock(), true);
+        } else {
+            ReadWriteLock lock = new ReentrantReadWriteLock();
+            stampedLock = null;
+            readHeld = null;
+            readLock = lock.readLock();
+            writeLock = lock.writeLock();
+        }
     }
 
     /**
      * 获取key上的数据
      */
     public V get(K key) {
+        if (stampedLock != null) {
+            long stamp = stampedLock.tryOptimisticRead();
+            if (stamp != 0) {
+                try {
+                    Node<K, V> vNode = getNode(key);
+                    //并发的写入在旋转和moveEntry时会在节点之间移动数据，节点上的数据可能已经不是key的，先复制再校验
+                    V copy = vNode == null ? null : valueCopier.apply(vNode.value);
+                    if (stampedLock.validate(stamp)) {
+                        return copy;
+                    }
+                } catch (RuntimeException ignored) {
+                    //读到了写入中途的状态，加读锁重新读取
+                }
+            }
+        }
+
         readLock.lock();
         try {
-            Node<V> vNode = keyMap.get(key);
+            Node<K, V> vNode = getNode(key);
             return vNode == null ? null : valueCopier.apply(vNode.value);
         } finally {
             readLock.unlock();
@@ -50,39 +120,151 @@ public class RedBlackTreeRankImpl<K, V> {
      * @return null：key未在排行榜上 others：key的排名
      */
     public Integer getRank(K key) {
+        if (stampedLock != null) {
+            long stamp = stampedLock.tryOptimisticRead();
+            if (stamp != 0) {
+                try {
+                    Node<K, V> y = getNode(key);
+                    int r = y == null ? 0 : optimisticRankOf(y);
+                    if (r >= 0 && stampedLock.validate(stamp)) {
+                        return y == null ? null : r;
+                    }
+                } catch (RuntimeException ignored) {
+                    //读到了写入中途的状态，加读锁重新读取
+                }
+            }
+        }
+
         readLock.lock();
         try {
-            Node<V> y = keyMap.get(key);
-            if (y == null) {
-                return null;
-            }
+            Node<K, V> y = getNode(key);
+            return y == null ? null : rankOf(y);
+        } finally {
+            readLock.unlock();
+        }
+    }
 
-            int r = (y.left == null ? 0 : y.left.size) + 1;
-            while (y != root) {
-                if (y == rightOf(parentOf(y))) {
-                    Node<V> vNode = leftOf(parentOf(y));
-                    r += (vNode != null ? vNode.size : 0) + 1;
-                }
-                y = y.parent;
+    /**
+     * 批量获取多个key的排名，只加一次读锁
+     * <p>
+     * 每个节点单独向上走到根，不缓存祖先的排名。按树中顺序排序后从根向下一次遍历的做法，
+     * 求路径本身就要向上走一遍，实测比逐个向上走慢一倍，见RankGetRanksBenchmark
+     *
+     * @return 和keys的迭代顺序一一对应的排名，0表示key未在排行榜上
+     */
+    public int[] getRanks(Collection<K> keys) {
+        int[] ranks = new int[keys.size()];
+        readLock.lock();
+        try {
+            int i = 0;
+            for (K key : keys) {
+                Node<K, V> node = getNode(key);
+                ranks[i++] = node == null ? 0 : rankOf(node);
             }
-            return r;
+            return ranks;
         } finally {
             readLock.unlock();
         }
     }
 
+    /**
+     * 批量获取多个key在这些key之间的排名，如好友榜、公会榜
+     *
+     * @return 和keys的迭代顺序一一对应的排名（从1开始，只计算在排行榜上的key，重复的key排名相同），0表示key未在排行榜上
+     */
+    public int[] getRanksInSubset(Collection<K> keys) {
+        int[] ranks = getRanks(keys);
+        int present = 0;
+        for (int r : ranks) {
+            if (r != 0) {
+                present++;
+            }
+        }
+
+        //高32位为全榜排名，低32位为下标，排序后即为子集内的顺序
+        long[] order = new long[present];
+        int n = 0;
+        for (int i = 0; i < ranks.length; i++) {
+            if (ranks[i] != 0) {
+                order[n++] = (long) ranks[i] << 32 | i;
+            }
+        }
+        Arrays.sort(order);
+        int subsetRank = 0;
+        long lastRank = -1;
+        for (long o : order) {
+            //重复的key全榜排名相同，只计算一次
+            if (o >>> 32 != lastRank) {
+                lastRank = o >>> 32;
+                subsetRank++;
+            }
+            ranks[(int) o] = subsetRank;
+        }
+        return ranks;
+    }
+
+    /**
+     * 不加锁时计算排名，写入中途的父指针可能成环，最多向上走MAX_HEIGHT步
+     *
+     * @return -1表示没有走到根节点
+     */
+    private int optimisticRankOf(Node<K, V> y) {
+        int r = sizeOf(y.left) + 1;
+        Node<K, V> top = root;
+        for (int i = 0; i < MAX_HEIGHT; i++) {
+            if (y == top) {
+                return r;
+            }
+            Node<K, V> p = y.parent;
+            if (y == p.right) {
+                r += sizeOf(p.left) + 1;
+            }
+            y = p;
+        }
+        return -1;
+    }
+
+    private int rankOf(Node<K, V> y) {
+        int r = sizeOf(y.left) + 1;
+        while (y != root) {
+            if (y == rightOf(parentOf(y))) {
+                Node<K, V> vNode = leftOf(parentOf(y));
+                r += sizeOf(vNode) + 1;
+            }
+            y = y.parent;
+        }
+        return r;
+    }
+
     /**
      * 获取排行榜当前长度
      */
     public int rankSize() {
+        if (stampedLock != null) {
+            long stamp = stampedLock.tryOptimisticRead();
+            int size = count;
+            if (stamp != 0 && stampedLock.validate(stamp)) {
+                return size;
+            }
+        }
+
         readLock.lock();
         try {
-            return keyMap.size();
+            return count;
         } finally {
             readLock.unlock();
         }
     }
 
+    /**
+     * 获取排行榜当前的数据版本号，不加锁
+     * <p>
+     * 版本号相同时排行榜的数据一定没有变化，可以用来缓存查询结果
+     */
+    public long version() {
+        return version;
+    }
+
     /**
      * 获取排于n的关键字
      *
@@ -95,11 +277,11 @@ public class RedBlackTreeRankImpl<K, V> {
 
         readLock.lock();
         try {
-            if (n > keyMap.size()) {
+            if (n > count) {
                 return null;
             }
 
-            return keyExtractor.apply(rankIn(root, n).value);
+            return rankIn(root, n).key;
         } finally {
             readLock.unlock();
         }
@@ -114,7 +296,7 @@ public class RedBlackTreeRankImpl<K, V> {
         }
         readLock.lock();
         try {
-            int size = keyMap.size();
+            int size = count;
             if (fromInclusive > size) {
                 fromInclusive = size;
             }
@@ -127,7 +309,7 @@ public class RedBlackTreeRankImpl<K, V> {
 
             List<V> result = new ArrayList<>(toExclusive - fromInclusive);
 
-            Node<V> node = rankIn(root, fromInclusive);
+            Node<K, V> node = rankIn(root, fromInclusive);
             final int lastNum = toExclusive - fromInclusive;
             for (int i = 0; i < lastNum; i++) {
                 result.add(valueCopier.apply(node.value));
@@ -140,21 +322,187 @@ public class RedBlackTreeRankImpl<K, V> {
         }
     }
 
+    /**
+     * 在读锁内按排名顺序遍历区间 fromInclusive 到 toExclusive 之间的数据，不复制数据也不创建集合
+     * <p>
+     * visitor拿到的是排行榜内部的数据，只能读取，不能修改，也不能在visitor中修改排行榜
+     *
+     * @param visitor 参数为数据和它的排名
+     * @return 遍历的数据个数
+     */
+    public int rankRangeForEach(int fromInclusive, int toExclusive, ObjIntConsumer<V> visitor) {
+        if (fromInclusive < 1 || toExclusive < 0 || fromInclusive >= toExclusive) {
+            throw new RuntimeException("错误参数 fromInclusive：" + fromInclusive + "  toExclusive:" + toExclusive);
+        }
+        readLock.lock();
+        try {
+            int size = count;
+            if (fromInclusive > size) {
+                return 0;
+            }
+            if (toExclusive > size + 1) {
+                toExclusive = size + 1;
+            }
+
+            Node<K, V> node = rankIn(root, fromInclusive);
+            for (int r = fromInclusive; r < toExclusive; r++) {
+                visitor.accept(node.value, r);
+                node = successor(node);
+            }
+            return toExclusive - fromInclusive;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * 写锁，供同包内需要在一次加锁内完成多个操作的组件使用，只有{@link #isReentrant()}时可重入
+     */
+    Lock getWriteLock() {
+        return writeLock;
+    }
+
+    boolean isReentrant() {
+        return stampedLock == null;
+    }
+
+    Function<V, K> getKeyExtractor() {
+        return keyExtractor;
+    }
+
+    /**
+     * 乐观读模式下的锁：StampedLock不可重入，已经持有读锁或写锁的线程再加锁可能永远等待，改为抛出异常。
+     * 持有读锁时再加读锁，只有在有写入方排队时才会死锁，这里也一律抛出异常，避免偶发的死锁
+     */
+    private final class NonReentrantLock implements Lock {
+        private final Lock lock;
+        private final boolean write;
+
+        NonReentrantLock(Lock lock, boolean write) {
+            this.lock = lock;
+            this.write = write;
+        }
+
+        private void checkReentry() {
+            if (writer == Thread.currentThread() || readHeld.get()[0]) {
+                throw new RuntimeException("乐观读模式的排行榜不可重入，不能在持有锁时的回调中访问排行榜");
+            }
+        }
+
+        private void acquired() {
+            if (write) {
+                writer = Thread.currentThread();
+            } else {
+                readHeld.get()[0] = true;
+            }
+        }
+
+        @Override
+        public void lock() {
+            checkReentry();
+            lock.lock();
+            acquired();
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            checkReentry();
+            lock.lockInterruptibly();
+            acquired();
+        }
+
+        @Override
+        public boolean tryLock() {
+            checkReentry();
+            if (!lock.tryLock()) {
+                return false;
+            }
+            acquired();
+            return true;
+        }
+
+        @Override
+        public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+            checkReentry();
+            if (!lock.tryLock(time, unit)) {
+                return false;
+            }
+            acquired();
+            return true;
+        }
+
+        @Override
+        public void unlock() {
+            if (write) {
+                writer = null;
+            } else {
+                readHeld.get()[0] = false;
+            }
+            lock.unlock();
+        }
+
+        @Override
+        public Condition newCondition() {
+            return lock.newCondition();
+        }
+    }
+
+    /**
+     * 排名变化的监听者，每次修改后在写锁内同步调用，不能阻塞，也不能在回调中访问排行榜
+     */
+    interface ChangeListener<K> {
+        /**
+         * @param oldRank 修改前的排名，0表示原来不在榜上
+         * @param newRank 修改后的排名，0表示已经从榜上删除
+         */
+        void onChange(K key, int oldRank, int newRank);
+    }
+
+    /**
+     * 设置排名变化的监听者，null表示取消；只支持一个监听者
+     */
+    void setChangeListener(ChangeListener<K> listener) {
+        writeLock.lock();
+        try {
+            if (listener != null && changeListener != null) {
+                throw new RuntimeException("排行榜已经有监听者");
+            }
+            changeListener = listener;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 有监听者时才计算修改前的排名
+     */
+    private int rankBeforeChange(Node<K, V> node) {
+        return node == null || changeListener == null ? 0 : rankOf(node);
+    }
+
+    private void fireChange(K key, int oldRank) {
+        ChangeListener<K> listener = changeListener;
+        if (listener != null) {
+            Node<K, V> node = getNode(key);
+            listener.onChange(key, oldRank, node == null ? 0 : rankOf(node));
+        }
+    }
+
     public void printAll() {
         print(root);
     }
 
-    private void print(Node<V> node) {
+    private void print(Node<K, V> node) {
         if (node != null) {
             print(node.left);
-            System.out.println("key:" + keyExtractor.apply(node.value) + " value:" + node.value);
+            System.out.println("key:" + node.key + " value:" + node.value);
             print(node.right);
         }
     }
 
-    private Node<V> rankIn(Node<V> x, int i) {
-        Node<V> leftNode = leftOf(x);
-        int r = (leftNode == null ? 0 : leftNode.size) + 1;
+    private Node<K, V> rankIn(Node<K, V> x, int i) {
+        Node<K, V> leftNode = leftOf(x);
+        int r = sizeOf(leftNode) + 1;
         if (i == r) {
             return x;
         } else if (i < r) {
@@ -179,85 +527,432 @@ public class RedBlackTreeRankImpl<K, V> {
         value = valueCopier.apply(value);
         writeLock.lock();
         try {
-            Node<V> t = root;
+            version++;
+            Node<K, V> t = root;
             if (t == null) {
-                root = new Node<>(value, null);
-                keyMap.put(key, root);
+                root = new Node<>(key, value, null);
+                addIndex(root);
+                fireChange(key, 0);
                 return null;
             }
 
             //更新操作
-            Node<V> oldNode = keyMap.get(key);
+            Node<K, V> oldNode = getNode(key);
             if (oldNode != null) {
                 final V oldValue = oldNode.value;
+                int oldRank = rankBeforeChange(oldNode);
+                reposition(oldNode, value);
+                fireChange(key, oldRank);
+                return oldValue;
+            }
 
-                int compare = comparator.compare(value, oldValue);
-                if (compare == 0) {
-                    oldNode.value = value;
-                } else if (compare > 0) {
-                    Node<V> pre = oldNode;
-                    Node<V> current = successor(pre);
-                    while (current != null && comparator.compare(value, current.value) > 0) {
-                        K affectedKey = keyExtractor.apply(current.value);
-                        keyMap.put(affectedKey, pre);
-
-                        pre.value = current.value;
-                        pre = current;
-                        current = successor(pre);
-                    }
+            insert(key, value);
+            fireChange(key, 0);
+            return null;
+        } finally {
+            writeLock.unlock();
+        }
+    }
 
-                    pre.value = value;
-                    keyMap.put(key, pre);
-                } else {
-                    Node<V> pre = oldNode;
-                    Node<V> current = predecessor(pre);
-                    while (current != null && comparator.compare(value, current.value) < 0) {
-                        K affectedKey = keyExtractor.apply(current.value);
-                        keyMap.put(affectedKey, pre);
-
-                        pre.value = current.value;
-                        pre = current;
-                        current = predecessor(pre);
-                    }
+    /**
+     * 在写锁内修改key上的数据并调整其位置，只加锁一次
+     * <p>
+     * 用于"给玩家加N分"这类写操作，代替 get、修改、put 三步，也避免了两步之间的更新丢失。
+     * scoreAdder修改的是数据的拷贝，正常返回后拷贝才替换排行榜中的数据，抛出异常时排行榜不变
+     *
+     * @param key        关键字
+     * @param delta      增加的分数
+     * @param scoreAdder 把delta加到数据上，直接修改传入的数据，不能改变数据的key
+     * @return null：key未在排行榜上 others：修改后key的排名
+     */
+    public Integer incrementScore(K key, long delta, ObjLongConsumer<V> scoreAdder) {
+        writeLock.lock();
+        try {
+            Node<K, V> node = getNode(key);
+            if (node == null) {
+                return null;
+            }
 
-                    pre.value = value;
-                    keyMap.put(key, pre);
-                }
-                return oldValue;
+            V value = valueCopier.apply(node.value);
+            scoreAdder.accept(value, delta);
+            if (!keyExtractor.apply(value).equals(key)) {
+                throw new RuntimeException("scoreAdder 修改了key：" + keyExtractor.apply(value) + " 输入key：" + key);
             }
 
-            //插入操作
-            int cmp;
-            Node<V> parent;
-            Comparator<V> cpr = comparator;
-            do {
-                parent = t;
-                cmp = cpr.compare(value, t.value);
-                if (cmp < 0)
-                    t = t.left;
-                else if (cmp > 0)
-                    t = t.right;
-                else
-                    throw new RuntimeException("两个元素的排名不能相等");
-            } while (t != null);
-
-            Node<V> e = new Node<>(value, parent);
-            if (cmp < 0) {
-                parent.left = e;
+            version++;
+            int oldRank = rankBeforeChange(node);
+            int newRank = rankOf(reposition(node, value));
+            ChangeListener<K> listener = changeListener;
+            if (listener != null) {
+                listener.onChange(key, oldRank, newRank);
+            }
+            return newRank;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 在写锁内用remappingFunction计算key上的新数据并调整其位置，只加锁一次
+     * <p>
+     * remappingFunction的参数是排行榜中数据的拷贝（key不存在时为null），可以直接修改后返回，
+     * 也可以返回新的数据；返回的数据会再复制一次后保存，调用方之后修改它不影响排行榜。
+     * 返回null或者抛出异常时排行榜不做修改
+     *
+     * @return 修改后数据的拷贝，或者null
+     */
+    public V merge(K key, Function<V, V> remappingFunction) {
+        writeLock.lock();
+        try {
+            Node<K, V> node = getNode(key);
+            V value = remappingFunction.apply(node == null ? null : valueCopier.apply(node.value));
+            if (value == null) {
+                return null;
+            }
+            value = valueCopier.apply(value);
+            version++;
+            if (!keyExtractor.apply(value).equals(key)) {
+                throw new RuntimeException("value 中抽取的key：" + keyExtractor.apply(value) + " 于输入key：" + key + " 不一致");
+            }
+
+            int oldRank = rankBeforeChange(node);
+            if (node != null) {
+                reposition(node, value);
+            } else if (root == null) {
+                root = new Node<>(key, value, null);
+                addIndex(root);
             } else {
-                parent.right = e;
+                insert(key, value);
             }
+            fireChange(key, oldRank);
+            return valueCopier.apply(value);
+        } finally {
+            writeLock.unlock();
+        }
+    }
 
-            addToAllParentNodes(e.parent, 1);
+    /**
+     * 把node上的数据换成value，然后沿着中序方向和相邻的节点交换数据，直到value回到正确位置
+     * <p>
+     * 数据连同关键字一起移动，关键字索引中对应槽位改为指向新的节点
+     *
+     * @return value最终所在的节点
+     */
+    private Node<K, V> reposition(Node<K, V> node, V value) {
+        final K key = node.key;
+        final int slot = slotOf(key);
+        Node<K, V> pre = node;
+        Node<K, V> current = successor(pre);
+        if (current != null && comparator.compare(value, current.value) > 0) {
+            do {
+                moveEntry(current, pre);
+                pre = current;
+                current = successor(pre);
+            } while (current != null && comparator.compare(value, current.value) > 0);
+        } else {
+            current = predecessor(pre);
+            while (current != null && comparator.compare(value, current.value) < 0) {
+                moveEntry(current, pre);
+                pre = current;
+                current = predecessor(pre);
+            }
+        }
 
-            fixAfterInsertion(e);
-            keyMap.put(key, e);
-            return null;
+        pre.key = key;
+        pre.value = value;
+        table[slot] = pre;
+        return pre;
+    }
+
+    /**
+     * 把from上的关键字和数据移到to上
+     */
+    private void moveEntry(Node<K, V> from, Node<K, V> to) {
+        table[slotOf(from.key)] = to;
+        to.key = from.key;
+        to.value = from.value;
+    }
+
+    /**
+     * 插入一个新的节点，调用时root不能为null
+     */
+    private void insert(K key, V value) {
+        Node<K, V> t = root;
+        int cmp;
+        Node<K, V> parent;
+        Comparator<V> cpr = comparator;
+        do {
+            parent = t;
+            cmp = cpr.compare(value, t.value);
+            if (cmp < 0)
+                t = t.left;
+            else if (cmp > 0)
+                t = t.right;
+            else
+                throw new RuntimeException("两个元素的排名不能相等");
+        } while (t != null);
+
+        Node<K, V> e = new Node<>(key, value, parent);
+        if (cmp < 0) {
+            parent.left = e;
+        } else {
+            parent.right = e;
+        }
+
+        addToAllParentNodes(e.parent, 1);
+
+        fixAfterInsertion(e);
+        addIndex(e);
+    }
+
+    /**
+     * 用一批数据重建排行榜，原有的数据全部丢弃
+     * <p>
+     * 数据先用Arrays.parallelSort排序，再用fork-join并行构建平衡的子树，颜色和子树大小在构建时自底向上确定，
+     * 不需要逐个插入和旋转。关键字索引最后按预先分配好的大小单线程建立。
+     * 用于启动时从备份恢复大排行榜，有监听者时不能调用
+     */
+    @SuppressWarnings("unchecked")
+    public void bulkLoad(Collection<V> values) {
+        V[] sorted = (V[]) values.toArray();
+        Arrays.parallelSort(sorted, comparator);
+        int n = sorted.length;
+        IntStream.range(1, n).parallel().filter(i -> comparator.compare(sorted[i - 1], sorted[i]) == 0).findAny().ifPresent(i -> {
+            throw new RuntimeException("两个元素的排名不能相等 value:" + sorted[i]);
+        });
+
+        Node<K, V>[] nodes = newTable(n);
+        Node<K, V> newRoot = n == 0 ? null : new BuildTask(sorted, nodes, 0, 0, n - 1, redLevel(n)).invoke();
+        Node<K, V>[] newTable = newTable(Math.max(16, Integer.highestOneBit(Math.max(n, 1)) << 2));
+        int mask = newTable.length - 1;
+        for (Node<K, V> node : nodes) {
+            int i = hash(node.key) & mask;
+            Node<K, V> e;
+            while ((e = newTable[i]) != null) {
+                if (e.key.equals(node.key)) {
+                    throw new RuntimeException("关键字重复 key:" + node.key);
+                }
+                i = (i + 1) & mask;
+            }
+            newTable[i] = node;
+        }
+
+        writeLock.lock();
+        try {
+            if (changeListener != null) {
+                throw new RuntimeException("排行榜有监听者时不能批量加载");
+            }
+            version++;
+            root = newRoot;
+            table = newTable;
+            count = n;
         } finally {
             writeLock.unlock();
         }
     }
 
+    /**
+     * 和TreeMap.buildFromSorted相同：最底下一层不满时，这一层的节点为红色，其余为黑色
+     */
+    private static int redLevel(int size) {
+        int level = 0;
+        for (int m = size - 1; m >= 0; m = m / 2 - 1) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * 用sorted[lo, hi]构建一棵平衡的子树，节点同时按排名放入nodes
+     */
+    private Node<K, V> buildSubtree(V[] sorted, Node<K, V>[] nodes, int level, int lo, int hi, int redLevel) {
+        if (hi < lo) {
+            return null;
+        }
+        int mid = (lo + hi) >>> 1;
+        return link(sorted, nodes, level, lo, hi, redLevel,
+                buildSubtree(sorted, nodes, level + 1, lo, mid - 1, redLevel),
+                buildSubtree(sorted, nodes, level + 1, mid + 1, hi, redLevel));
+    }
+
+    private Node<K, V> link(V[] sorted, Node<K, V>[] nodes, int level, int lo, int hi, int redLevel, Node<K, V> left, Node<K, V> right) {
+        int mid = (lo + hi) >>> 1;
+        V value = valueCopier.apply(sorted[mid]);
+        Node<K, V> node = new Node<>(keyExtractor.apply(value), value, null);
+        node.left = left;
+        node.right = right;
+        if (left != null) {
+            left.parent = node;
+        }
+        if (right != null) {
+            right.parent = node;
+        }
+        setSize(node, hi - lo + 1);
+        if (level == redLevel) {
+            setColor(node, RED);
+        }
+        nodes[mid] = node;
+        return node;
+    }
+
+    /**
+     * 子树足够大时左右子树并行构建
+     */
+    private final class BuildTask extends RecursiveTask<Node<K, V>> {
+        private final V[] sorted;
+        private final Node<K, V>[] nodes;
+        private final int level;
+        private final int lo;
+        private final int hi;
+        private final int redLevel;
+
+        BuildTask(V[] sorted, Node<K, V>[] nodes, int level, int lo, int hi, int redLevel) {
+            this.sorted = sorted;
+            this.nodes = nodes;
+            this.level = level;
+            this.lo = lo;
+            this.hi = hi;
+            this.redLevel = redLevel;
+        }
+
+        @Override
+        protected Node<K, V> compute() {
+            if (hi - lo < PARALLEL_THRESHOLD) {
+                return buildSubtree(sorted, nodes, level, lo, hi, redLevel);
+            }
+            int mid = (lo + hi) >>> 1;
+            BuildTask leftTask = new BuildTask(sorted, nodes, level + 1, lo, mid - 1, redLevel);
+            leftTask.fork();
+            Node<K, V> right = new BuildTask(sorted, nodes, level + 1, mid + 1, hi, redLevel).compute();
+            return link(sorted, nodes, level, lo, hi, redLevel, leftTask.join(), right);
+        }
+    }
+
+    /**
+     * 在读锁内并行检查排行榜的结构，发现问题时抛出RuntimeException
+     * <p>
+     * 检查内容：根节点为黑色、父子指针一致、中序有序、红色节点没有红色子节点、各路径黑色节点数相同、
+     * 子树大小正确、每个节点的关键字和数据一致且能通过索引找到、索引中的节点数等于树的节点数
+     */
+    public void checkInvariants() {
+        readLock.lock();
+        try {
+            if (root == null) {
+                if (count != 0) {
+                    throw new RuntimeException("树为空但索引不为空 count:" + count);
+                }
+                return;
+            }
+            if (root.parent != null || colorOf(root) != BLACK) {
+                throw new RuntimeException("根节点错误 key:" + root.key);
+            }
+            CheckTask task = new CheckTask(root);
+            task.invoke();
+            if (task.size != count) {
+                throw new RuntimeException("树的节点数和索引不一致 size:" + task.size + " count:" + count);
+            }
+            IndexCheckTask indexTask = new IndexCheckTask(table, 0, table.length);
+            indexTask.invoke();
+            if (indexTask.count != count) {
+                throw new RuntimeException("索引中的节点数错误 count:" + count + " actual:" + indexTask.count);
+            }
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * 检查一棵子树，计算出子树的节点数、黑高、最小和最大节点
+     */
+    private final class CheckTask extends RecursiveAction {
+        private final Node<K, V> node;
+        int size;
+        int blackHeight;
+        Node<K, V> min;
+        Node<K, V> max;
+
+        CheckTask(Node<K, V> node) {
+            this.node = node;
+        }
+
+        @Override
+        protected void compute() {
+            Node<K, V> x = node;
+            CheckTask left = x.left == null ? null : new CheckTask(x.left);
+            CheckTask right = x.right == null ? null : new CheckTask(x.right);
+            if (left != null && right != null && sizeOf(x) > PARALLEL_THRESHOLD) {
+                invokeAll(left, right);
+            } else {
+                if (left != null) {
+                    left.compute();
+                }
+                if (right != null) {
+                    right.compute();
+                }
+            }
+
+            int leftSize = left == null ? 0 : left.size;
+            int rightSize = right == null ? 0 : right.size;
+            int leftBlack = left == null ? 0 : left.blackHeight;
+            int rightBlack = right == null ? 0 : right.blackHeight;
+            if (left != null && (x.left.parent != x || comparator.compare(left.max.value, x.value) >= 0)) {
+                throw new RuntimeException("左子树错误 key:" + x.key);
+            }
+            if (right != null && (x.right.parent != x || comparator.compare(right.min.value, x.value) <= 0)) {
+                throw new RuntimeException("右子树错误 key:" + x.key);
+            }
+            if (colorOf(x) == RED && (colorOf(x.left) == RED || colorOf(x.right) == RED)) {
+                throw new RuntimeException("红色节点有红色子节点 key:" + x.key);
+            }
+            if (leftBlack != rightBlack) {
+                throw new RuntimeException("黑高不一致 key:" + x.key + " left:" + leftBlack + " right:" + rightBlack);
+            }
+            size = leftSize + rightSize + 1;
+            if (sizeOf(x) != size) {
+                throw new RuntimeException("子树大小错误 key:" + x.key + " size:" + sizeOf(x) + " actual:" + size);
+            }
+            if (!keyExtractor.apply(x.value).equals(x.key) || getNode(x.key) != x) {
+                throw new RuntimeException("关键字索引错误 key:" + x.key);
+            }
+            blackHeight = leftBlack + (colorOf(x) == BLACK ? 1 : 0);
+            min = left == null ? x : left.min;
+            max = right == null ? x : right.max;
+        }
+    }
+
+    /**
+     * 统计索引中的节点数
+     */
+    private static final class IndexCheckTask extends RecursiveAction {
+        private final Node<?, ?>[] tab;
+        private final int from;
+        private final int to;
+        int count;
+
+        IndexCheckTask(Node<?, ?>[] tab, int from, int to) {
+            this.tab = tab;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    if (tab[i] != null) {
+                        count++;
+                    }
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            IndexCheckTask left = new IndexCheckTask(tab, from, mid);
+            IndexCheckTask right = new IndexCheckTask(tab, mid, to);
+            invokeAll(left, right);
+            count = left.count + right.count;
+        }
+    }
+
     /**
      * 将关键字从排行榜上删除
      *
@@ -266,45 +961,150 @@ public class RedBlackTreeRankImpl<K, V> {
     public V remove(K key) {
         writeLock.lock();
         try {
-            Node<V> value = keyMap.get(key);
-            if (value == null) {
+            Node<K, V> node = getNode(key);
+            if (node == null) {
                 return null;
             }
 
-            deleteNode(value);
-            keyMap.remove(key);
-            return value.value;
+            version++;
+            //deleteNode可能把后继的数据移到node上，先取出原来的数据
+            V oldValue = node.value;
+            int oldRank = rankBeforeChange(node);
+            removeIndex(key);
+            deleteNode(node);
+            fireChange(key, oldRank);
+            return oldValue;
         } finally {
             writeLock.unlock();
         }
     }
 
-    private void addToAllParentNodes(Node<V> parent, int num) {
+    private Node<K, V> getNode(Object key) {
+        int slot = slotOf(key);
+        return slot < 0 ? null : table[slot];
+    }
+
+    /**
+     * @return key所在的槽位，-1表示不存在
+     */
+    private int slotOf(Object key) {
+        Node<K, V>[] tab = table;
+        int mask = tab.length - 1;
+        int i = hash(key) & mask;
+        Node<K, V> e;
+        while ((e = tab[i]) != null) {
+            if (e.key == key || e.key.equals(key)) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * 把节点加入索引，调用时节点的关键字不能已经在索引中
+     */
+    private void addIndex(Node<K, V> node) {
+        if ((count + 1) << 1 > table.length) {
+            Node<K, V>[] old = table;
+            table = newTable(old.length << 1);
+            for (Node<K, V> e : old) {
+                if (e != null) {
+                    place(table, e);
+                }
+            }
+        }
+        place(table, node);
+        count++;
+    }
+
+    private static <K, V> void place(Node<K, V>[] tab, Node<K, V> node) {
+        int mask = tab.length - 1;
+        int i = hash(node.key) & mask;
+        while (tab[i] != null) {
+            i = (i + 1) & mask;
+        }
+        tab[i] = node;
+    }
+
+    /**
+     * 从索引中删除关键字，后面同一探测序列上的节点向前移动填补空位
+     */
+    private void removeIndex(Object key) {
+        int i = slotOf(key);
+        if (i < 0) {
+            return;
+        }
+        Node<K, V>[] tab = table;
+        int mask = tab.length - 1;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            Node<K, V> e = tab[j];
+            if (e == null) {
+                break;
+            }
+            int home = hash(e.key) & mask;
+            //home不在(i, j]之间时，e可以移到空位i
+            if (i <= j ? (home <= i || home > j) : (home <= i && home > j)) {
+                tab[i] = e;
+                i = j;
+            }
+        }
+        tab[i] = null;
+        count--;
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> Node<K, V>[] newTable(int length) {
+        return (Node<K, V>[]) new Node[length];
+    }
+
+    private void addToAllParentNodes(Node<K, V> parent, int num) {
         while (parent != null) {
-            parent.size += num;
+            setSize(parent, sizeOf(parent) + num);
             parent = parent.parent;
         }
     }
 
+    /**
+     * 子树或者区间小于该值时不再拆分任务
+     */
+    private static final int PARALLEL_THRESHOLD = 8192;
+    /**
+     * 节点数不超过Integer.MAX_VALUE时红黑树的最大高度
+     */
+    private static final int MAX_HEIGHT = 64;
+
     // Red-black mechanics
     private static final boolean RED = false;
     private static final boolean BLACK = true;
 
-    final static class Node<V> {
+    /**
+     * 节点同时是关键字索引的条目，不再另外分配HashMap.Node
+     */
+    final static class Node<K, V> {
+        K key;
         V value;
 
-        Node<V> left, right, parent;
+        Node<K, V> left, right, parent;
         int size = 1;
         boolean color = BLACK;
 
-        public Node(V value, Node<V> parent) {
+        public Node(K key, V value, Node<K, V> parent) {
+            this.key = key;
             this.value = value;
             this.parent = parent;
         }
     }
 
-    final Node<V> getFirstNode() {
-        Node<V> p = root;
+    final Node<K, V> getFirstNode() {
+        Node<K, V> p = root;
         if (p != null) {
             while (p.left != null) {
                 p = p.left;
@@ -313,8 +1113,8 @@ public class RedBlackTreeRankImpl<K, V> {
         return p;
     }
 
-    final Node<V> getLastNode() {
-        Node<V> p = root;
+    final Node<K, V> getLastNode() {
+        Node<K, V> p = root;
         if (p != null) {
             while (p.right != null) {
                 p = p.right;
@@ -323,18 +1123,18 @@ public class RedBlackTreeRankImpl<K, V> {
         return p;
     }
 
-    static <V> Node<V> successor(Node<V> t) {
+    static <K, V> Node<K, V> successor(Node<K, V> t) {
         if (t == null) {
             return null;
         } else if (t.right != null) {
-            Node<V> p = t.right;
+            Node<K, V> p = t.right;
             while (p.left != null) {
                 p = p.left;
             }
             return p;
         } else {
-            Node<V> p = t.parent;
-            Node<V> ch = t;
+            Node<K, V> p = t.parent;
+            Node<K, V> ch = t;
             while (p != null && ch == p.right) {
                 ch = p;
                 p = p.parent;
@@ -343,18 +1143,18 @@ public class RedBlackTreeRankImpl<K, V> {
         }
     }
 
-    static <V> Node<V> predecessor(Node<V> t) {
+    static <K, V> Node<K, V> predecessor(Node<K, V> t) {
         if (t == null) {
             return null;
         } else if (t.left != null) {
-            Node<V> p = t.left;
+            Node<K, V> p = t.left;
             while (p.right != null) {
                 p = p.right;
             }
             return p;
         } else {
-            Node<V> p = t.parent;
-            Node<V> ch = t;
+            Node<K, V> p = t.parent;
+            Node<K, V> ch = t;
             while (p != null && ch == p.left) {
                 ch = p;
                 p = p.parent;
@@ -372,34 +1172,42 @@ public class RedBlackTreeRankImpl<K, V> {
      * are used to avoid messiness surrounding nullness checks in the main
      * algorithms.
      */
-    private static <V> boolean colorOf(Node<V> p) {
+    private static <K, V> boolean colorOf(Node<K, V> p) {
         return (p == null ? BLACK : p.color);
     }
 
-    private static <V> Node<V> parentOf(Node<V> p) {
+    private static <K, V> Node<K, V> parentOf(Node<K, V> p) {
         return (p == null ? null : p.parent);
     }
 
-    private static <V> void setColor(Node<V> p, boolean c) {
+    private static <K, V> void setColor(Node<K, V> p, boolean c) {
         if (p != null) {
             p.color = c;
         }
     }
 
-    private static <V> Node<V> leftOf(Node<V> p) {
+    private static <K, V> int sizeOf(Node<K, V> p) {
+        return p == null ? 0 : p.size;
+    }
+
+    private static <K, V> void setSize(Node<K, V> p, int size) {
+        p.size = size;
+    }
+
+    private static <K, V> Node<K, V> leftOf(Node<K, V> p) {
         return (p == null) ? null : p.left;
     }
 
-    private static <V> Node<V> rightOf(Node<V> p) {
+    private static <K, V> Node<K, V> rightOf(Node<K, V> p) {
         return (p == null) ? null : p.right;
     }
 
     /**
      * From CLR
      */
-    private void rotateLeft(Node<V> p) {
+    private void rotateLeft(Node<K, V> p) {
         if (p != null) {
-            Node<V> r = p.right;
+            Node<K, V> r = p.right;
             p.right = r.left;
             if (r.left != null)
                 r.left.parent = p;
@@ -413,19 +1221,17 @@ public class RedBlackTreeRankImpl<K, V> {
             r.left = p;
             p.parent = r;
 
-            r.size = p.size;
-            int leftSize = p.left != null ? p.left.size : 0;
-            int rightSize = p.right != null ? p.right.size : 0;
-            p.size = leftSize + rightSize + 1;
+            setSize(r, sizeOf(p));
+            setSize(p, sizeOf(p.left) + sizeOf(p.right) + 1);
         }
     }
 
     /**
      * From CLR
      */
-    private void rotateRight(Node<V> p) {
+    private void rotateRight(Node<K, V> p) {
         if (p != null) {
-            Node<V> l = p.left;
+            Node<K, V> l = p.left;
             p.left = l.right;
             if (l.right != null) l.right.parent = p;
             l.parent = p.parent;
@@ -437,22 +1243,20 @@ public class RedBlackTreeRankImpl<K, V> {
             l.right = p;
             p.parent = l;
 
-            l.size = p.size;
-            int leftSize = p.left != null ? p.left.size : 0;
-            int rightSize = p.right != null ? p.right.size : 0;
-            p.size = leftSize + rightSize + 1;
+            setSize(l, sizeOf(p));
+            setSize(p, sizeOf(p.left) + sizeOf(p.right) + 1);
         }
     }
 
     /**
      * From CLR 2256
      */
-    private void fixAfterInsertion(Node<V> x) {
-        x.color = RED;
+    private void fixAfterInsertion(Node<K, V> x) {
+        setColor(x, RED);
 
-        while (x != null && x != root && x.parent.color == RED) {
+        while (x != null && x != root && colorOf(x.parent) == RED) {
             if (parentOf(x) == leftOf(parentOf(parentOf(x)))) {
-                Node<V> y = rightOf(parentOf(parentOf(x)));
+                Node<K, V> y = rightOf(parentOf(parentOf(x)));
                 if (colorOf(y) == RED) {
                     setColor(parentOf(x), BLACK);
                     setColor(y, BLACK);
@@ -468,7 +1272,7 @@ public class RedBlackTreeRankImpl<K, V> {
                     rotateRight(parentOf(parentOf(x)));
                 }
             } else {
-                Node<V> y = leftOf(parentOf(parentOf(x)));
+                Node<K, V> y = leftOf(parentOf(parentOf(x)));
                 if (colorOf(y) == RED) {
                     setColor(parentOf(x), BLACK);
                     setColor(y, BLACK);
@@ -485,24 +1289,23 @@ public class RedBlackTreeRankImpl<K, V> {
                 }
             }
         }
-        root.color = BLACK;
+        setColor(root, BLACK);
     }
 
     /**
      * Delete node p, and then rebalance the tree. 2299
      */
-    private void deleteNode(Node<V> p) {
+    private void deleteNode(Node<K, V> p) {
         // If strictly internal, copy successor's element to p and then make p
         // point to successor.
         if (p.left != null && p.right != null) {
-            Node<V> s = successor(p);
-            p.value = s.value;
-            keyMap.put(keyExtractor.apply(p.value), p);
+            Node<K, V> s = successor(p);
+            moveEntry(s, p);
             p = s;
         } // p has 2 children
 
         // Start fixup at replacement node, if it exists.
-        Node<V> replacement = (p.left != null ? p.left : p.right);
+        Node<K, V> replacement = (p.left != null ? p.left : p.right);
 
         if (replacement != null) {
             // Link replacement to parent
@@ -519,12 +1322,12 @@ public class RedBlackTreeRankImpl<K, V> {
             p.left = p.right = p.parent = null;
 
             // Fix replacement
-            if (p.color == BLACK)
+            if (colorOf(p) == BLACK)
                 fixAfterDeletion(replacement);
         } else if (p.parent == null) { // return if we are the only node.
             root = null;
         } else { //  No children. Use self as phantom replacement and unlink.
-            if (p.color == BLACK)
+            if (colorOf(p) == BLACK)
                 fixAfterDeletion(p);
 
             if (p.parent != null) {
@@ -542,10 +1345,10 @@ public class RedBlackTreeRankImpl<K, V> {
     /**
      * From CLR 2349
      */
-    private void fixAfterDeletion(Node<V> x) {
+    private void fixAfterDeletion(Node<K, V> x) {
         while (x != root && colorOf(x) == BLACK) {
             if (x == leftOf(parentOf(x))) {
-                Node<V> sib = rightOf(parentOf(x));
+                Node<K, V> sib = rightOf(parentOf(x));
 
                 if (colorOf(sib) == RED) {
                     setColor(sib, BLACK);
@@ -572,7 +1375,7 @@ public class RedBlackTreeRankImpl<K, V> {
                     x = root;
                 }
             } else { // symmetric
-                Node<V> sib = leftOf(parentOf(x));
+                Node<K, V> sib = leftOf(parentOf(x));
 
                 if (colorOf(sib) == RED) {
                     setColor(sib, BLACK);
@@ -0,0 +1,555 @@
+package com.lez.setting;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * 压缩位图，结构参照Roaring Bitmap
+ * <p>
+ * 非负int按高16位分桶，每个桶是一个容器：元素不超过{@link #ARRAY_MAX}个时用有序char数组，
+ * 超过后换成8KB的位图。稀疏和稠密的集合都只占用很少的内存，AND/OR/ANDNOT逐桶计算。
+ * <p>
+ * 非线程安全
+ */
+public final class CompressedBitmap {
+    /**
+     * 数组容器的最大元素个数，此时数组和位图都是8KB
+     */
+    static final int ARRAY_MAX = 4096;
+    private static final int BITMAP_WORDS = 1024;
+
+    private char[] keys;
+    private Container[] containers;
+    private int size;
+
+    public CompressedBitmap() {
+        this(4);
+    }
+
+    private CompressedBitmap(int capacity) {
+        keys = new char[capacity];
+        containers = new Container[capacity];
+    }
+
+    /**
+     * @return x之前不在集合中时返回true
+     */
+    public boolean add(int x) {
+        checkElement(x);
+        char high = (char) (x >>> 16);
+        int i = indexOf(high);
+        if (i < 0) {
+            ArrayContainer c = new ArrayContainer(new char[4], 0);
+            c.add((char) x);
+            insert(-i - 1, high, c);
+            return true;
+        }
+        Container c = containers[i];
+        int before = c.cardinality;
+        containers[i] = c.add((char) x);
+        return containers[i].cardinality != before;
+    }
+
+    /**
+     * @return x之前在集合中时返回true
+     */
+    public boolean remove(int x) {
+        if (x < 0) {
+            return false;
+        }
+        int i = indexOf((char) (x >>> 16));
+        if (i < 0) {
+            return false;
+        }
+        Container c = containers[i];
+        int before = c.cardinality;
+        c = c.remove((char) x);
+        if (c.cardinality == 0) {
+            System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+            System.arraycopy(containers, i + 1, containers, i, size - i - 1);
+            containers[--size] = null;
+        } else {
+            containers[i] = c;
+        }
+        return c.cardinality != before;
+    }
+
+    public boolean contains(int x) {
+        if (x < 0) {
+            return false;
+        }
+        int i = indexOf((char) (x >>> 16));
+        return i >= 0 && containers[i].contains((char) x);
+    }
+
+    public int cardinality() {
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            n += containers[i].cardinality;
+        }
+        return n;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 按从小到大的顺序遍历
+     */
+    public void forEach(IntConsumer consumer) {
+        for (int i = 0; i < size; i++) {
+            containers[i].forEach(keys[i] << 16, consumer);
+        }
+    }
+
+    public int[] toArray() {
+        int[] result = new int[cardinality()];
+        int[] p = new int[1];
+        forEach(x -> result[p[0]++] = x);
+        return result;
+    }
+
+    public CompressedBitmap copy() {
+        CompressedBitmap result = new CompressedBitmap(Math.max(size, 1));
+        for (int i = 0; i < size; i++) {
+            result.keys[i] = keys[i];
+            result.containers[i] = containers[i].copy();
+        }
+        result.size = size;
+        return result;
+    }
+
+    /**
+     * 估算占用的字节数，包括容器和桶数组
+     */
+    public long sizeInBytes() {
+        long bytes = 16 + 16L + keys.length * 2L + 16L + containers.length * 4L;
+        for (int i = 0; i < size; i++) {
+            bytes += containers[i].sizeInBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * 交集，a和b都不会被修改
+     */
+    public static CompressedBitmap and(CompressedBitmap a, CompressedBitmap b) {
+        CompressedBitmap result = new CompressedBitmap(Math.max(Math.min(a.size, b.size), 1));
+        int i = 0;
+        int j = 0;
+        while (i < a.size && j < b.size) {
+            if (a.keys[i] < b.keys[j]) {
+                i++;
+            } else if (a.keys[i] > b.keys[j]) {
+                j++;
+            } else {
+                result.append(a.keys[i], and(a.containers[i], b.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 并集，a和b都不会被修改
+     */
+    public static CompressedBitmap or(CompressedBitmap a, CompressedBitmap b) {
+        CompressedBitmap result = new CompressedBitmap(Math.max(a.size + b.size, 1));
+        int i = 0;
+        int j = 0;
+        while (i < a.size || j < b.size) {
+            if (j == b.size || (i < a.size && a.keys[i] < b.keys[j])) {
+                result.append(a.keys[i], a.containers[i].copy());
+                i++;
+            } else if (i == a.size || a.keys[i] > b.keys[j]) {
+                result.append(b.keys[j], b.containers[j].copy());
+                j++;
+            } else {
+                result.append(a.keys[i], or(a.containers[i], b.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 差集：在a中但不在b中，a和b都不会被修改
+     */
+    public static CompressedBitmap andNot(CompressedBitmap a, CompressedBitmap b) {
+        CompressedBitmap result = new CompressedBitmap(Math.max(a.size, 1));
+        int j = 0;
+        for (int i = 0; i < a.size; i++) {
+            while (j < b.size && b.keys[j] < a.keys[i]) {
+                j++;
+            }
+            if (j < b.size && b.keys[j] == a.keys[i]) {
+                result.append(a.keys[i], andNot(a.containers[i], b.containers[j]));
+            } else {
+                result.append(a.keys[i], a.containers[i].copy());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CompressedBitmap)) return false;
+        return Arrays.equals(toArray(), ((CompressedBitmap) o).toArray());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(toArray());
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+
+    private static void checkElement(int x) {
+        if (x < 0) {
+            throw new RuntimeException("元素必须大于等于0 x:" + x);
+        }
+    }
+
+    private int indexOf(char high) {
+        int low = 0;
+        int hi = size - 1;
+        while (low <= hi) {
+            int mid = (low + hi) >>> 1;
+            char k = keys[mid];
+            if (k < high) {
+                low = mid + 1;
+            } else if (k > high) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private void insert(int i, char high, Container c) {
+        if (size == keys.length) {
+            int capacity = size << 1;
+            keys = Arrays.copyOf(keys, capacity);
+            containers = Arrays.copyOf(containers, capacity);
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(containers, i, containers, i + 1, size - i);
+        keys[i] = high;
+        containers[i] = c;
+        size++;
+    }
+
+    /**
+     * 按顺序追加结果容器，空容器丢弃
+     */
+    private void append(char high, Container c) {
+        if (c.cardinality > 0) {
+            insert(size, high, c);
+        }
+    }
+
+    private static Container and(Container x, Container y) {
+        if (x instanceof ArrayContainer && y instanceof ArrayContainer) {
+            ArrayContainer a = (ArrayContainer) x;
+            ArrayContainer b = (ArrayContainer) y;
+            char[] values = new char[Math.min(a.cardinality, b.cardinality)];
+            int n = 0;
+            int i = 0;
+            int j = 0;
+            while (i < a.cardinality && j < b.cardinality) {
+                char u = a.values[i];
+                char v = b.values[j];
+                if (u < v) {
+                    i++;
+                } else if (u > v) {
+                    j++;
+                } else {
+                    values[n++] = u;
+                    i++;
+                    j++;
+                }
+            }
+            return new ArrayContainer(values, n);
+        }
+        if (x instanceof ArrayContainer || y instanceof ArrayContainer) {
+            ArrayContainer a = (ArrayContainer) (x instanceof ArrayContainer ? x : y);
+            BitmapContainer b = (BitmapContainer) (x instanceof ArrayContainer ? y : x);
+            char[] values = new char[a.cardinality];
+            int n = 0;
+            for (int i = 0; i < a.cardinality; i++) {
+                if (b.contains(a.values[i])) {
+                    values[n++] = a.values[i];
+                }
+            }
+            return new ArrayContainer(values, n);
+        }
+        long[] u = ((BitmapContainer) x).words;
+        long[] v = ((BitmapContainer) y).words;
+        long[] words = new long[BITMAP_WORDS];
+        for (int i = 0; i < BITMAP_WORDS; i++) {
+            words[i] = u[i] & v[i];
+        }
+        return BitmapContainer.of(words);
+    }
+
+    private static Container or(Container x, Container y) {
+        if (x instanceof ArrayContainer && y instanceof ArrayContainer) {
+            ArrayContainer a = (ArrayContainer) x;
+            ArrayContainer b = (ArrayContainer) y;
+            char[] values = new char[a.cardinality + b.cardinality];
+            int n = 0;
+            int i = 0;
+            int j = 0;
+            while (i < a.cardinality || j < b.cardinality) {
+                if (j == b.cardinality || (i < a.cardinality && a.values[i] < b.values[j])) {
+                    values[n++] = a.values[i++];
+                } else if (i == a.cardinality || a.values[i] > b.values[j]) {
+                    values[n++] = b.values[j++];
+                } else {
+                    values[n++] = a.values[i++];
+                    j++;
+                }
+            }
+            ArrayContainer result = new ArrayContainer(values, n);
+            return n > ARRAY_MAX ? result.toBitmap() : result;
+        }
+        BitmapContainer result;
+        Container other;
+        if (x instanceof BitmapContainer) {
+            result = (BitmapContainer) x.copy();
+            other = y;
+        } else {
+            result = (BitmapContainer) y.copy();
+            other = x;
+        }
+        if (other instanceof ArrayContainer) {
+            ArrayContainer a = (ArrayContainer) other;
+            for (int i = 0; i < a.cardinality; i++) {
+                result.add(a.values[i]);
+            }
+            return result;
+        }
+        long[] v = ((BitmapContainer) other).words;
+        int cardinality = 0;
+        for (int i = 0; i < BITMAP_WORDS; i++) {
+            result.words[i] |= v[i];
+            cardinality += Long.bitCount(result.words[i]);
+        }
+        result.cardinality = cardinality;
+        return result;
+    }
+
+    private static Container andNot(Container x, Container y) {
+        if (x instanceof ArrayContainer) {
+            ArrayContainer a = (ArrayContainer) x;
+            char[] values = new char[a.cardinality];
+            int n = 0;
+            for (int i = 0; i < a.cardinality; i++) {
+                if (!y.contains(a.values[i])) {
+                    values[n++] = a.values[i];
+                }
+            }
+            return new ArrayContainer(values, n);
+        }
+        long[] words = ((BitmapContainer) x).words.clone();
+        if (y instanceof ArrayContainer) {
+            ArrayContainer b = (ArrayContainer) y;
+            for (int i = 0; i < b.cardinality; i++) {
+                char v = b.values[i];
+                words[v >>> 6] &= ~(1L << v);
+            }
+        } else {
+            long[] v = ((BitmapContainer) y).words;
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                words[i] &= ~v[i];
+            }
+        }
+        return BitmapContainer.of(words);
+    }
+
+    /**
+     * 一个桶内的低16位集合
+     */
+    private abstract static class Container {
+        int cardinality;
+
+        abstract boolean contains(char v);
+
+        /**
+         * @return 添加后的容器，可能换成另一种实现
+         */
+        abstract Container add(char v);
+
+        /**
+         * @return 删除后的容器，可能换成另一种实现
+         */
+        abstract Container remove(char v);
+
+        abstract void forEach(int base, IntConsumer consumer);
+
+        abstract Container copy();
+
+        abstract long sizeInBytes();
+    }
+
+    private static final class ArrayContainer extends Container {
+        char[] values;
+
+        ArrayContainer(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        boolean contains(char v) {
+            return Arrays.binarySearch(values, 0, cardinality, v) >= 0;
+        }
+
+        @Override
+        Container add(char v) {
+            int i = Arrays.binarySearch(values, 0, cardinality, v);
+            if (i >= 0) {
+                return this;
+            }
+            if (cardinality == ARRAY_MAX) {
+                return toBitmap().add(v);
+            }
+            i = -i - 1;
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(Math.max(cardinality << 1, 4), ARRAY_MAX));
+            }
+            System.arraycopy(values, i, values, i + 1, cardinality - i);
+            values[i] = v;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        Container remove(char v) {
+            int i = Arrays.binarySearch(values, 0, cardinality, v);
+            if (i >= 0) {
+                System.arraycopy(values, i + 1, values, i, cardinality - i - 1);
+                cardinality--;
+            }
+            return this;
+        }
+
+        @Override
+        void forEach(int base, IntConsumer consumer) {
+            for (int i = 0; i < cardinality; i++) {
+                consumer.accept(base | values[i]);
+            }
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, Math.max(cardinality, 1)), cardinality);
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 16 + 16 + values.length * 2L;
+        }
+
+        BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer(new long[BITMAP_WORDS], 0);
+            for (int i = 0; i < cardinality; i++) {
+                bitmap.add(values[i]);
+            }
+            return bitmap;
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+        final long[] words;
+
+        BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        /**
+         * 元素不多时转换为数组容器
+         */
+        static Container of(long[] words) {
+            int cardinality = 0;
+            for (long w : words) {
+                cardinality += Long.bitCount(w);
+            }
+            BitmapContainer bitmap = new BitmapContainer(words, cardinality);
+            return cardinality > ARRAY_MAX ? bitmap : bitmap.toArrayContainer();
+        }
+
+        @Override
+        boolean contains(char v) {
+            return (words[v >>> 6] & (1L << v)) != 0;
+        }
+
+        @Override
+        Container add(char v) {
+            long before = words[v >>> 6];
+            long after = before | (1L << v);
+            if (before != after) {
+                words[v >>> 6] = after;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        Container remove(char v) {
+            long before = words[v >>> 6];
+            long after = before & ~(1L << v);
+            if (before != after) {
+                words[v >>> 6] = after;
+                cardinality--;
+                if (cardinality <= ARRAY_MAX) {
+                    return toArrayContainer();
+                }
+            }
+            return this;
+        }
+
+        @Override
+        void forEach(int base, IntConsumer consumer) {
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                long w = words[i];
+                while (w != 0) {
+                    consumer.accept(base | (i << 6) | Long.numberOfTrailingZeros(w));
+                    w &= w - 1;
+                }
+            }
+        }
+
+        @Override
+        Container copy() {
+            return new BitmapContainer(words.clone(), cardinality);
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 16 + 16 + BITMAP_WORDS * 8L;
+        }
+
+        ArrayContainer toArrayContainer() {
+            char[] values = new char[Math.max(cardinality, 1)];
+            int n = 0;
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                long w = words[i];
+                while (w != 0) {
+                    values[n++] = (char) ((i << 6) | Long.numberOfTrailingZeros(w));
+                    w &= w - 1;
+                }
+            }
+            return new ArrayContainer(values, n);
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package com.lez.setting;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 用{@link SettingSupport}压缩存放的设置字段的位图索引
+ * <p>
+ * 每个(字段, 值)维护一个{@link CompressedBitmap}，保存该字段等于该值的id。设置值变化时只更新值发生变化的字段，
+ * "通知字段为3并且地区字段为7"这类查询不用扫描所有设置，直接对位图求交集：
+ * <pre>
+ * index.query().eq("notify", 3).and("region", 7).execute()
+ * </pre>
+ * 索引不保存设置值本身，调用方修改设置时需要把旧值和新值一起传入。线程安全
+ */
+public class SettingIndex {
+
+    /**
+     * 设置中的一个字段，占用[fromIndex, toIndex)位
+     */
+    public static final class Field {
+        final String name;
+        final int fromIndex;
+        final int toIndex;
+
+        public Field(String name, int fromIndex, int toIndex) {
+            if (fromIndex < 0 || toIndex > Long.SIZE || fromIndex >= toIndex) {
+                throw new RuntimeException("错误索引 name:" + name + " fromIndex:" + fromIndex + " toIndex:" + toIndex);
+            }
+            this.name = name;
+            this.fromIndex = fromIndex;
+            this.toIndex = toIndex;
+        }
+
+        long valueOf(long setting) {
+            return SettingSupport.getPosValue(setting, fromIndex, toIndex);
+        }
+    }
+
+    private final Field[] fields;
+    private final Map<String, Integer> fieldIndexes = new HashMap<>();
+    /**
+     * 每个字段：值 -> 位图，没有id的值不保存位图
+     */
+    private final List<Map<Long, CompressedBitmap>> bitmaps = new ArrayList<>();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Lock readLock = lock.readLock();
+    private final Lock writeLock = lock.writeLock();
+
+    private final AtomicLong updateCount = new AtomicLong();
+    private final AtomicLong bitmapUpdateCount = new AtomicLong();
+    private final AtomicLong updateNanos = new AtomicLong();
+
+    public SettingIndex(Field... fields) {
+        this.fields = fields.clone();
+        for (int i = 0; i < fields.length; i++) {
+            if (fieldIndexes.put(fields[i].name, i) != null) {
+                throw new RuntimeException("字段重复 name:" + fields[i].name);
+            }
+            bitmaps.add(new HashMap<>());
+        }
+    }
+
+    /**
+     * 加入一个id的设置
+     */
+    public void add(int id, long setting) {
+        writeLock.lock();
+        try {
+            long start = System.nanoTime();
+            for (int i = 0; i < fields.length; i++) {
+                bitmaps.get(i).computeIfAbsent(fields[i].valueOf(setting), v -> new CompressedBitmap()).add(id);
+            }
+            record(start, fields.length);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * id的设置从oldSetting改为newSetting，只更新值有变化的字段
+     */
+    public void update(int id, long oldSetting, long newSetting) {
+        if (oldSetting == newSetting) {
+            return;
+        }
+        writeLock.lock();
+        try {
+            long start = System.nanoTime();
+            int changed = 0;
+            for (int i = 0; i < fields.length; i++) {
+                long oldValue = fields[i].valueOf(oldSetting);
+                long newValue = fields[i].valueOf(newSetting);
+                if (oldValue != newValue) {
+                    removeFromBitmap(i, oldValue, id);
+                    bitmaps.get(i).computeIfAbsent(newValue, v -> new CompressedBitmap()).add(id);
+                    changed += 2;
+                }
+            }
+            record(start, changed);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 删除一个id，setting是它当前的设置
+     */
+    public void remove(int id, long setting) {
+        writeLock.lock();
+        try {
+            long start = System.nanoTime();
+            for (int i = 0; i < fields.length; i++) {
+                removeFromBitmap(i, fields[i].valueOf(setting), id);
+            }
+            record(start, fields.length);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 字段等于value的所有id，返回的位图是副本
+     */
+    public CompressedBitmap get(String field, long value) {
+        readLock.lock();
+        try {
+            CompressedBitmap bitmap = bitmap(field, value);
+            return bitmap == null ? new CompressedBitmap() : bitmap.copy();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    public Query query() {
+        return new Query();
+    }
+
+    /**
+     * 所有位图估算占用的字节数
+     */
+    public long sizeInBytes() {
+        readLock.lock();
+        try {
+            long bytes = 0;
+            for (Map<Long, CompressedBitmap> values : bitmaps) {
+                for (CompressedBitmap bitmap : values.values()) {
+                    bytes += bitmap.sizeInBytes();
+                }
+            }
+            return bytes;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    public int getBitmapCount() {
+        readLock.lock();
+        try {
+            int n = 0;
+            for (Map<Long, CompressedBitmap> values : bitmaps) {
+                n += values.size();
+            }
+            return n;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * add、update、remove的调用次数，设置没有变化的update不计入
+     */
+    public long getUpdateCount() {
+        return updateCount.get();
+    }
+
+    /**
+     * 更新时修改位图的次数
+     */
+    public long getBitmapUpdateCount() {
+        return bitmapUpdateCount.get();
+    }
+
+    /**
+     * 更新索引的累计耗时，不包括等待锁的时间
+     */
+    public long getUpdateNanos() {
+        return updateNanos.get();
+    }
+
+    private void record(long start, int bitmapUpdates) {
+        updateNanos.addAndGet(System.nanoTime() - start);
+        updateCount.incrementAndGet();
+        bitmapUpdateCount.addAndGet(bitmapUpdates);
+    }
+
+    private void removeFromBitmap(int field, long value, int id) {
+        Map<Long, CompressedBitmap> values = bitmaps.get(field);
+        CompressedBitmap bitmap = values.get(value);
+        if (bitmap != null && bitmap.remove(id) && bitmap.isEmpty()) {
+            values.remove(value);
+        }
+    }
+
+    private CompressedBitmap bitmap(String field, long value) {
+        Integer i = fieldIndexes.get(field);
+        if (i == null) {
+            throw new RuntimeException("字段不存在 field:" + field);
+        }
+        return bitmaps.get(i).get(value);
+    }
+
+    /**
+     * 多个字段条件的组合，从左到右计算，在一次读锁内完成
+     */
+    public final class Query {
+        private final List<Step> steps = new ArrayList<>();
+
+        private Query() {
+        }
+
+        /**
+         * 第一个条件
+         */
+        public Query eq(String field, long value) {
+            if (!steps.isEmpty()) {
+                throw new RuntimeException("eq只能作为第一个条件 field:" + field);
+            }
+            return step(Op.OR, field, value);
+        }
+
+        public Query and(String field, long value) {
+            return step(Op.AND, field, value);
+        }
+
+        public Query or(String field, long value) {
+            return step(Op.OR, field, value);
+        }
+
+        public Query andNot(String field, long value) {
+            return step(Op.AND_NOT, field, value);
+        }
+
+        public CompressedBitmap execute() {
+            if (steps.isEmpty()) {
+                throw new RuntimeException("没有查询条件");
+            }
+            readLock.lock();
+            try {
+                CompressedBitmap empty = new CompressedBitmap();
+                CompressedBitmap result = empty;
+                for (Step step : steps) {
+                    CompressedBitmap bitmap = bitmap(step.field, step.value);
+                    if (bitmap == null) {
+                        bitmap = empty;
+                    }
+                    switch (step.op) {
+                        case AND:
+                            result = CompressedBitmap.and(result, bitmap);
+                            break;
+                        case OR:
+                            result = CompressedBitmap.or(result, bitmap);
+                            break;
+                        default:
+                            result = CompressedBitmap.andNot(result, bitmap);
+                            break;
+                    }
+                }
+                return result;
+            } finally {
+                readLock.unlock();
+            }
+        }
+
+        private Query step(Op op, String field, long value) {
+            if (steps.isEmpty() && op != Op.OR) {
+                throw new RuntimeException("第一个条件必须是eq field:" + field);
+            }
+            steps.add(new Step(op, field, value));
+            return this;
+        }
+    }
+
+    private enum Op {
+        AND, OR, AND_NOT
+    }
+
+    private static final class Step {
+        final Op op;
+        final String field;
+        final long value;
+
+        Step(Op op, String field, long value) {
+            this.op = op;
+            this.field = field;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.lez.hmac.sha2;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+public class HmacSha256BatchVerifierTest {
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void testVerifyAndSign() {
+        Map<Integer, byte[]> keys = new HashMap<>();
+        Map<Integer, HmacSha256Signer> signers = new HashMap<>();
+        for (int merchantId = 1; merchantId <= 5; merchantId++) {
+            byte[] key = ("merchant-key-" + merchantId).getBytes(StandardCharsets.UTF_8);
+            keys.put(merchantId, key);
+            signers.put(merchantId, new HmacSha256Signer(key));
+        }
+
+        Random random = new Random();
+        List<HmacSha256Record<Integer>> records = new ArrayList<>();
+        boolean[] expect = new boolean[1000];
+        for (int i = 0; i < expect.length; i++) {
+            int merchantId = random.nextInt(6) + 1;
+            byte[] message = ("TRX" + i + "MYR" + random.nextInt()).getBytes(StandardCharsets.UTF_8);
+            byte[] mac = HMAC.calcHmacSha256(("merchant-key-" + merchantId).getBytes(StandardCharsets.UTF_8), message);
+            if (random.nextBoolean()) {
+                mac[random.nextInt(mac.length)] ^= 1;
+            } else {
+                expect[i] = keys.containsKey(merchantId);
+            }
+            records.add(new HmacSha256Record<>(merchantId, message, mac));
+        }
+
+        HmacSha256BatchVerifier<Integer> verifier = new HmacSha256BatchVerifier<>(signers::get, pool, 16);
+        Assert.assertArrayEquals(expect, verifier.verify(records));
+
+        List<HmacSha256Record<Integer>> toSign = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            toSign.add(new HmacSha256Record<>(i % 5 + 1, ("message" + i).getBytes(StandardCharsets.UTF_8)));
+        }
+        byte[][] macs = verifier.sign(toSign);
+        for (int i = 0; i < macs.length; i++) {
+            HmacSha256Record<Integer> record = toSign.get(i);
+            Assert.assertArrayEquals(HMAC.calcHmacSha256(keys.get(record.getKeyId()), record.getMessage()), macs[i]);
+        }
+    }
+}
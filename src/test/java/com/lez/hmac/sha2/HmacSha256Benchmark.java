@@ -0,0 +1,65 @@
+package com.lez.hmac.sha2;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比 HMAC.calcHmacSha256、HmacSha256Signer 和 PrecomputedHmacSha256
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HmacSha256Benchmark {
+    private final byte[] key = "Ziu61T9xY227aazS530Pk8C5424y663r".getBytes(StandardCharsets.UTF_8);
+    private final byte[] callbackMessage = "10003f2504e04f8911d39a0c0305e82c3301MYR12321144221Product Ahmac-sha256TRX1708901http://yoursite.com/result?referenceId=TRX1708901v1".getBytes(StandardCharsets.UTF_8);
+    private final HmacSha256Signer signer = new HmacSha256Signer(key);
+    private final PrecomputedHmacSha256 precomputed = new PrecomputedHmacSha256(key);
+    private final byte[] out = new byte[HmacSha256Signer.MAC_LENGTH];
+
+    @Param({"16", "128"})
+    private int messageLength;
+    private byte[] message;
+
+    @Setup
+    public void setup() {
+        message = Arrays.copyOf(callbackMessage, messageLength);
+    }
+
+    @Benchmark
+    public byte[] calcHmacSha256() {
+        return HMAC.calcHmacSha256(key, message);
+    }
+
+    @Benchmark
+    public byte[] signerSign() {
+        return signer.sign(message);
+    }
+
+    @Benchmark
+    public byte[] signerSignInto() {
+        signer.sign(message, 0, message.length, out, 0);
+        return out;
+    }
+
+    @Benchmark
+    public byte[] precomputedSignInto() {
+        precomputed.sign(message, 0, message.length, out, 0);
+        return out;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(HmacSha256Benchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
@@ -0,0 +1,95 @@
+package com.lez.hmac.sha2;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+public class HmacSha256SignerTest {
+    private final byte[] key = "Ziu61T9xY227aazS530Pk8C5424y663r".getBytes(StandardCharsets.UTF_8);
+    private final HmacSha256Signer signer = new HmacSha256Signer(key);
+
+    @Test
+    public void testSign() {
+        Random random = new Random();
+        for (int i = 0; i < 100; i++) {
+            byte[] message = new byte[random.nextInt(300)];
+            random.nextBytes(message);
+            Assert.assertArrayEquals(HMAC.calcHmacSha256(key, message), signer.sign(message));
+        }
+    }
+
+    @Test
+    public void testSignIntoArray() {
+        byte[] message = "10003f2504e04f8911d39a0c0305e82c3301MYR".getBytes(StandardCharsets.UTF_8);
+        byte[] out = new byte[HmacSha256Signer.MAC_LENGTH + 8];
+        Assert.assertEquals(HmacSha256Signer.MAC_LENGTH, signer.sign(message, 2, message.length - 2, out, 8));
+
+        byte[] expect = HMAC.calcHmacSha256(key, Arrays.copyOfRange(message, 2, message.length));
+        Assert.assertArrayEquals(expect, Arrays.copyOfRange(out, 8, out.length));
+    }
+
+    @Test
+    public void testSignIntoBuffer() {
+        byte[] message = "Product Ahmac-sha256TRX1708901".getBytes(StandardCharsets.UTF_8);
+        byte[] expect = HMAC.calcHmacSha256(key, message);
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(message.length);
+        direct.put(message).flip();
+        ByteBuffer out = ByteBuffer.allocateDirect(HmacSha256Signer.MAC_LENGTH);
+        signer.sign(direct, out);
+        out.flip();
+        byte[] actual = new byte[HmacSha256Signer.MAC_LENGTH];
+        out.get(actual);
+        Assert.assertArrayEquals(expect, actual);
+
+        ByteBuffer heapOut = ByteBuffer.allocate(HmacSha256Signer.MAC_LENGTH);
+        signer.sign(ByteBuffer.wrap(message), heapOut);
+        Assert.assertArrayEquals(expect, heapOut.array());
+    }
+
+    @Test
+    public void testContext() {
+        Random random = new Random();
+        byte[] message = new byte[10000];
+        random.nextBytes(message);
+        byte[] expect = HMAC.calcHmacSha256(key, message);
+
+        HmacSha256Context context = signer.newContext();
+        for (int round = 0; round < 2; round++) {
+            ByteBuffer direct = ByteBuffer.allocateDirect(message.length - 5000);
+            direct.put(message, 5000, message.length - 5000).flip();
+            context.update(message[0]).update(message, 1, 4999).update(direct);
+            Assert.assertArrayEquals(expect, context.doFinal());
+        }
+    }
+
+    @Test
+    public void testSignStreamAndFile() throws IOException {
+        Random random = new Random();
+        byte[] message = new byte[HmacSha256Signer.IO_BUFFER_SIZE * 3 + 17];
+        random.nextBytes(message);
+        byte[] expect = HMAC.calcHmacSha256(key, message);
+
+        Assert.assertArrayEquals(expect, signer.sign(new ByteArrayInputStream(message)));
+
+        File file = File.createTempFile("hmac", ".bin");
+        file.deleteOnExit();
+        Files.write(file.toPath(), message);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            Assert.assertArrayEquals(expect, signer.sign(channel));
+            Assert.assertArrayEquals(expect, signer.signMapped(channel, 0, message.length));
+            Assert.assertArrayEquals(HMAC.calcHmacSha256(key, Arrays.copyOfRange(message, 100, 200)),
+                    signer.signMapped(channel, 100, 100));
+        }
+    }
+}
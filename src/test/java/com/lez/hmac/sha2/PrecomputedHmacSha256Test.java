@@ -0,0 +1,72 @@
+package com.lez.hmac.sha2;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+public class PrecomputedHmacSha256Test {
+
+    /**
+     * RFC 4231 test case 1-7
+     */
+    @Test
+    public void testRfc4231() {
+        check(fill(20, 0x0b), ascii("Hi There"),
+                "b0344c61d8db38535ca8afceaf0bf12b881dc200c9833da726e9376c2e32cff7");
+        check(ascii("Jefe"), ascii("what do ya want for nothing?"),
+                "5bdcc146bf60754e6a042426089575c75a003f089d2739839dec58b964ec3843");
+        check(fill(20, 0xaa), fill(50, 0xdd),
+                "773ea91e36800e46854db8ebd09181a72959098b3ef8c122d9635514ced565fe");
+        byte[] key4 = new byte[25];
+        for (int i = 0; i < key4.length; i++) {
+            key4[i] = (byte) (i + 1);
+        }
+        check(key4, fill(50, 0xcd),
+                "82558a389a443c0ea4cc819899f2083a85f0faa3e578f8077a2e3ff46729665b");
+        byte[] mac5 = new PrecomputedHmacSha256(fill(20, 0x0c)).sign(ascii("Test With Truncation"));
+        Assert.assertEquals("a3b6167473100ee06e0c796c2955552b", MacEncoding.toHex(Arrays.copyOf(mac5, 16)));
+        check(fill(131, 0xaa), ascii("Test Using Larger Than Block-Size Key - Hash Key First"),
+                "60e431591ee0b67f0d8a26aacbf5b77f8e0bc6213728c5140546040f0ee37f54");
+        check(fill(131, 0xaa), ascii("This is a test using a larger than block-size key and a larger than block-size data."
+                        + " The key needs to be hashed before being used by the HMAC algorithm."),
+                "9b09ffa71b942fcb27635fbcd5b0e944bfdc63644f0713938a7f51535c3a35e2");
+    }
+
+    @Test
+    public void testAgainstJce() {
+        Random random = new Random();
+        for (int keyLength = 1; keyLength < 200; keyLength += 7) {
+            byte[] key = new byte[keyLength];
+            random.nextBytes(key);
+            PrecomputedHmacSha256 hmac = new PrecomputedHmacSha256(key);
+            for (int length = 0; length < 300; length++) {
+                byte[] message = new byte[length + 3];
+                random.nextBytes(message);
+                byte[] expect = HMAC.calcHmacSha256(key, Arrays.copyOfRange(message, 3, message.length));
+
+                byte[] out = new byte[40];
+                hmac.sign(message, 3, length, out, 5);
+                Assert.assertArrayEquals(expect, Arrays.copyOfRange(out, 5, 37));
+                Assert.assertTrue(hmac.verify(message, 3, length, expect));
+            }
+        }
+    }
+
+    private static void check(byte[] key, byte[] message, String hex) {
+        Assert.assertEquals(hex, MacEncoding.toHex(new PrecomputedHmacSha256(key).sign(message)));
+        Assert.assertEquals(hex, MacEncoding.toHex(HMAC.calcHmacSha256(key, message)));
+    }
+
+    private static byte[] fill(int length, int b) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) b);
+        return bytes;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,60 @@
+package com.lez.hmac.sha2;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+public class SignMessageBuilderTest {
+
+    @Test
+    public void testAppend() {
+        SignMessageBuilder builder = new SignMessageBuilder(16);
+        String[] fields = {"10003", "f2504e04f8911d39a0c0305e82c3301", "产品A", "é😀x", "\uD800", ""};
+        StringBuilder expect = new StringBuilder();
+        for (int round = 0; round < 2; round++) {
+            builder.reset();
+            expect.setLength(0);
+            for (String field : fields) {
+                builder.append(field);
+                expect.append(field);
+            }
+            long[] numbers = {0, -1, 7, 12321144221L, Long.MAX_VALUE, Long.MIN_VALUE};
+            for (long number : numbers) {
+                builder.append(number);
+                expect.append(number);
+            }
+            builder.append('&').append(Integer.MIN_VALUE);
+            expect.append('&').append(Integer.MIN_VALUE);
+            Assert.assertArrayEquals(expect.toString().getBytes(StandardCharsets.UTF_8), builder.toByteArray());
+        }
+
+        byte[] key = "Ziu61T9xY227aazS530Pk8C5424y663r".getBytes(StandardCharsets.UTF_8);
+        HmacSha256Signer signer = new HmacSha256Signer(key);
+        byte[] mac = HMAC.calcHmacSha256(key, expect.toString().getBytes(StandardCharsets.UTF_8));
+        Assert.assertArrayEquals(mac, builder.sign(signer));
+        Assert.assertTrue(builder.verify(signer, mac));
+    }
+
+    @Test
+    public void testEncoding() {
+        Random random = new Random();
+        for (int length = 0; length < 70; length++) {
+            byte[] src = new byte[length];
+            random.nextBytes(src);
+            if (length > 0) {
+                src[0] = 0;
+            }
+
+            String hex = length == 0 ? "" : String.format("%0" + length * 2 + "x", new BigInteger(1, src));
+            Assert.assertEquals(hex, MacEncoding.toHex(src));
+
+            byte[] base64 = new byte[MacEncoding.base64Length(length) + 1];
+            int n = MacEncoding.encodeBase64(src, 0, length, base64, 1);
+            Assert.assertEquals(Base64.getEncoder().encodeToString(src), new String(base64, 1, n, StandardCharsets.US_ASCII));
+        }
+    }
+}
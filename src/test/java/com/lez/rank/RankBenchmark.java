@@ -0,0 +1,63 @@
+package com.lez.rank;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 排行榜写操作对比：get + 修改 + put 和 incrementScore
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RankBenchmark {
+    @Param({"100000"})
+    private int size;
+
+    private RedBlackTreeRankImpl<Integer, UserRankEntry> rank;
+
+    @Setup
+    public void setup() {
+        Comparator<UserRankEntry> comparator = Comparator.comparing(UserRankEntry::getRankScore).thenComparing(UserRankEntry::getUserId);
+        rank = new RedBlackTreeRankImpl<>(comparator, UserRankEntry::new, UserRankEntry::getUserId);
+        Random random = new Random(1);
+        for (int userId = 1; userId <= size; userId++) {
+            rank.put(userId, new UserRankEntry(userId, random.nextInt(size)));
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Integer getAndPut() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int userId = random.nextInt(size) + 1;
+        UserRankEntry entry = rank.get(userId);
+        entry.setRankScore(entry.getRankScore() + random.nextInt(-10, 11));
+        rank.put(userId, entry);
+        return userId;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Integer incrementScore() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int userId = random.nextInt(size) + 1;
+        return rank.incrementScore(userId, random.nextInt(-10, 11), (entry, delta) -> entry.setRankScore(entry.getRankScore() + delta));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RankBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
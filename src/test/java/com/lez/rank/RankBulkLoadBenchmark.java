@@ -0,0 +1,74 @@
+package com.lez.rank;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 重建排行榜：逐个put和bulkLoad对比，以及checkInvariants的耗时
+ * <p>
+ * 并行度由ForkJoinPool.commonPool决定，可以用-Djava.util.concurrent.ForkJoinPool.common.parallelism调整
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RankBulkLoadBenchmark {
+    @Param({"1000000"})
+    private int size;
+
+    private Comparator<UserRankEntry> comparator = Comparator.comparing(UserRankEntry::getRankScore).thenComparing(UserRankEntry::getUserId);
+    private List<UserRankEntry> entries;
+    private RedBlackTreeRankImpl<Integer, UserRankEntry> loaded;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        entries = new ArrayList<>(size);
+        for (int userId = 1; userId <= size; userId++) {
+            entries.add(new UserRankEntry(userId, random.nextInt(size)));
+        }
+        loaded = newRank();
+        loaded.bulkLoad(entries);
+    }
+
+    @Benchmark
+    public RedBlackTreeRankImpl<Integer, UserRankEntry> put() {
+        RedBlackTreeRankImpl<Integer, UserRankEntry> rank = newRank();
+        for (UserRankEntry entry : entries) {
+            rank.put(entry.getUserId(), entry);
+        }
+        return rank;
+    }
+
+    @Benchmark
+    public RedBlackTreeRankImpl<Integer, UserRankEntry> bulkLoad() {
+        RedBlackTreeRankImpl<Integer, UserRankEntry> rank = newRank();
+        rank.bulkLoad(entries);
+        return rank;
+    }
+
+    @Benchmark
+    public void checkInvariants() {
+        loaded.checkInvariants();
+    }
+
+    private RedBlackTreeRankImpl<Integer, UserRankEntry> newRank() {
+        return new RedBlackTreeRankImpl<>(comparator, UserRankEntry::new, UserRankEntry::getUserId);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RankBulkLoadBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,65 @@
+package com.lez.rank;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openjdk.jol.info.ClassLayout;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.lang.reflect.Field;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 用JOL检查排行榜每个条目的内存占用
+ */
+public class RankFootprintTest {
+    private static final int SIZE = 100000;
+
+    @Test
+    public void testFootprint() throws Exception {
+        Comparator<UserRankEntry> comparator = Comparator.comparing(UserRankEntry::getRankScore).thenComparing(UserRankEntry::getUserId);
+        //不复制value，排行榜中保存的就是payload里的对象
+        RedBlackTreeRankImpl<Integer, UserRankEntry> rank = new RedBlackTreeRankImpl<>(comparator, v -> v, UserRankEntry::getUserId);
+        Object[] payload = new Object[SIZE * 2];
+        for (int i = 0; i < SIZE; i++) {
+            Integer userId = i + 1;
+            UserRankEntry entry = new UserRankEntry(userId, userId);
+            rank.put(userId, entry);
+            payload[i * 2] = userId;
+            payload[i * 2 + 1] = entry;
+        }
+
+        //从索引数组出发能走到所有的树节点、key和value；排行榜自身的比较器是lambda，JOL无法解析
+        Field tableField = RedBlackTreeRankImpl.class.getDeclaredField("table");
+        tableField.setAccessible(true);
+        //减去key和value本身，剩下的是树节点和索引
+        long keysAndValues = GraphLayout.parseInstance(payload).totalSize() - ClassLayout.parseInstance(payload).instanceSize();
+        double perEntry = (double) (GraphLayout.parseInstance(tableField.get(rank)).totalSize() - keysAndValues) / SIZE;
+
+        //原来的布局：HashMap<K, OldNode<V>>，每个条目一个OldNode、一个HashMap.Node和一个HashMap槽位
+        Map<Integer, OldNode<UserRankEntry>> keyMap = new HashMap<>();
+        for (int i = 0; i < SIZE; i++) {
+            keyMap.put((Integer) payload[i * 2], new OldNode<>((UserRankEntry) payload[i * 2 + 1]));
+        }
+        double oldPerEntry = (double) (GraphLayout.parseInstance(keyMap).totalSize() - keysAndValues) / SIZE;
+
+        //节点多了key字段，对齐后大小不变，节省全部来自去掉HashMap.Node
+        Assert.assertEquals(ClassLayout.parseClass(OldNode.class).instanceSize(), ClassLayout.parseClass(RedBlackTreeRankImpl.Node.class).instanceSize());
+        Assert.assertTrue(perEntry < oldPerEntry);
+    }
+
+    /**
+     * 原来的树节点
+     */
+    private static final class OldNode<V> {
+        V value;
+        OldNode<V> left, right, parent;
+        int size = 1;
+        boolean color;
+
+        OldNode(V value) {
+            this.value = value;
+        }
+    }
+}
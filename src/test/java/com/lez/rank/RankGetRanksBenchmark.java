@@ -0,0 +1,70 @@
+package com.lez.rank;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 批量取排名：getRanks和逐个getRank对比，100万条数据
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RankGetRanksBenchmark {
+    @Param({"1000000"})
+    private int size;
+
+    @Param({"10", "100", "1000"})
+    private int keyCount;
+
+    private Comparator<UserRankEntry> comparator = Comparator.comparing(UserRankEntry::getRankScore).thenComparing(UserRankEntry::getUserId);
+    private RedBlackTreeRankImpl<Integer, UserRankEntry> rank;
+    private List<Integer> keys;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        List<UserRankEntry> entries = new ArrayList<>(size);
+        for (int userId = 1; userId <= size; userId++) {
+            entries.add(new UserRankEntry(userId, random.nextInt(size)));
+        }
+        rank = new RedBlackTreeRankImpl<>(comparator, UserRankEntry::new, UserRankEntry::getUserId);
+        rank.bulkLoad(entries);
+        keys = new ArrayList<>(keyCount);
+        for (int i = 0; i < keyCount; i++) {
+            keys.add(random.nextInt(size) + 1);
+        }
+    }
+
+    @Benchmark
+    public int[] getRanks() {
+        return rank.getRanks(keys);
+    }
+
+    @Benchmark
+    public int[] getRank() {
+        int[] ranks = new int[keys.size()];
+        for (int i = 0; i < ranks.length; i++) {
+            Integer r = rank.getRank(keys.get(i));
+            ranks[i] = r == null ? 0 : r;
+        }
+        return ranks;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RankGetRanksBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
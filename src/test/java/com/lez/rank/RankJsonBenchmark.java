@@ -0,0 +1,74 @@
+package com.lez.rank;
+
+import com.google.gson.Gson;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 排行榜分页json序列化对比：rankRange + gson + getBytes 和 RankJsonWriter
+ * <p>
+ * scores为integer时分数都是整数，RankJsonWriter走整数分支；fractional时分数带小数，每个分数会调用一次Double.toString
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RankJsonBenchmark {
+    @Param({"1000"})
+    private int pageSize;
+
+    @Param({"integer", "fractional"})
+    private String scores;
+
+    private RedBlackTreeRankImpl<Integer, UserRankEntry> rank;
+    private RankJsonWriter<UserRankEntry> writer;
+    private final Gson gson = new Gson();
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+
+    @Setup
+    public void setup() {
+        Comparator<UserRankEntry> comparator = Comparator.comparing(UserRankEntry::getRankScore).thenComparing(UserRankEntry::getUserId);
+        rank = new RedBlackTreeRankImpl<>(comparator, UserRankEntry::new, UserRankEntry::getUserId);
+        Random random = new Random(1);
+        for (int userId = 1; userId <= 100000; userId++) {
+            double score = "integer".equals(scores) ? random.nextInt(1000000) : random.nextDouble() * 1000000;
+            rank.put(userId, new UserRankEntry(userId, score));
+        }
+        writer = RankJsonWriter.<UserRankEntry>builder()
+                .longField("userId", UserRankEntry::getUserId)
+                .doubleField("rankScore", UserRankEntry::getRankScore)
+                .build();
+    }
+
+    @Benchmark
+    public int gson() throws IOException {
+        out.reset();
+        out.write(gson.toJson(rank.rankRange(1, pageSize + 1)).getBytes(StandardCharsets.UTF_8));
+        return out.size();
+    }
+
+    @Benchmark
+    public int rankJsonWriter() throws IOException {
+        out.reset();
+        writer.write(rank, 1, pageSize + 1, out);
+        return out.size();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RankJsonBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
@@ -0,0 +1,84 @@
+package com.lez.rank;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+public class RankJsonWriterTest {
+    private Comparator<UserRankEntry> comparator = Comparator.comparing(UserRankEntry::getRankScore).thenComparing(UserRankEntry::getUserId);
+    private RedBlackTreeRankImpl<Integer, UserRankEntry> rank = new RedBlackTreeRankImpl<>(comparator, UserRankEntry::new, UserRankEntry::getUserId);
+
+    private RankJsonWriter<UserRankEntry> writer = RankJsonWriter.<UserRankEntry>builder()
+            .longField("userId", UserRankEntry::getUserId)
+            .doubleField("score", UserRankEntry::getRankScore)
+            .stringField("name", entry -> "玩家\"" + entry.getUserId() + "\"\n")
+            .build();
+
+    @Test
+    public void testWrite() throws IOException {
+        Random random = new Random();
+        for (int userId = 1; userId <= 300; userId++) {
+            rank.put(userId, new UserRankEntry(userId, userId % 3 == 0 ? random.nextInt(1000) : random.nextDouble() * 1000));
+        }
+
+        for (int[] range : new int[][]{{1, 101}, {250, 400}, {300, 301}, {1, 2}}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int rows = writer.write(rank, range[0], range[1], out);
+            List<UserRankEntry> expect = rank.rankRange(range[0], range[1]);
+            Assert.assertEquals(expect.size(), rows);
+
+            JsonArray array = new JsonParser().parse(new String(out.toByteArray(), StandardCharsets.UTF_8)).getAsJsonArray();
+            Assert.assertEquals(expect.size(), array.size());
+            for (int i = 0; i < expect.size(); i++) {
+                JsonObject row = array.get(i).getAsJsonObject();
+                UserRankEntry entry = expect.get(i);
+                Assert.assertEquals(range[0] + i, row.get("rank").getAsInt());
+                Assert.assertEquals(entry.getUserId(), row.get("userId").getAsInt());
+                Assert.assertEquals(entry.getRankScore(), row.get("score").getAsDouble(), 0);
+                Assert.assertEquals("玩家\"" + entry.getUserId() + "\"\n", row.get("name").getAsString());
+            }
+        }
+
+        Assert.assertEquals("[]", new String(writer.toBytes(new RedBlackTreeRankImpl<>(comparator, UserRankEntry::new, UserRankEntry::getUserId), 1, 10), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testLargePageBufferNotRetained() throws IOException {
+        for (int userId = 1; userId <= 10000; userId++) {
+            rank.put(userId, new UserRankEntry(userId, userId + 0.5));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertEquals(10000, writer.write(rank, 1, 10001, out));
+        Assert.assertTrue(out.size() > RankJsonWriter.MAX_RETAINED_CAPACITY);
+        Assert.assertTrue(writer.bufferCapacity() <= RankJsonWriter.MAX_RETAINED_CAPACITY);
+
+        writer.write(rank, 1, 11, new ByteArrayOutputStream());
+        int capacity = writer.bufferCapacity();
+        writer.write(rank, 1, 11, new ByteArrayOutputStream());
+        Assert.assertEquals(capacity, writer.bufferCapacity());
+    }
+
+    @Test
+    public void testJsonByteBuffer() {
+        JsonByteBuffer buffer = new JsonByteBuffer(1);
+        long[] numbers = {0, 7, -7, Long.MAX_VALUE, Long.MIN_VALUE};
+        StringBuilder expect = new StringBuilder();
+        for (long number : numbers) {
+            buffer.writeLong(number).writeByte(',');
+            expect.append(number).append(',');
+        }
+        buffer.writeDouble(1.5).writeByte(',').writeDouble(-3.0).writeByte(',').writeDouble(Double.NaN).writeByte(',')
+                .writeBoolean(true).writeByte(',').writeString("a\\b\u0001é😀");
+        expect.append("1.5,-3,null,true,\"a\\\\b\\u0001é😀\"");
+        Assert.assertEquals(expect.toString(), new String(buffer.toByteArray(), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,76 @@
+package com.lez.rank;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 读写锁和StampedLock乐观读的对比
+ * <p>
+ * readPercent为get、getRank、rankSize所占的比例，其余为incrementScore；
+ * main按1、2、4、8个线程分别运行，也可以用-t参数指定线程数
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RankLockBenchmark {
+    @Param({"100000"})
+    private int size;
+
+    @Param({"false", "true"})
+    private boolean optimisticRead;
+
+    /**
+     * 读多、读写混合、写多
+     */
+    @Param({"99", "90", "50", "10"})
+    private int readPercent;
+
+    private RedBlackTreeRankImpl<Integer, UserRankEntry> rank;
+
+    @Setup
+    public void setup() {
+        Comparator<UserRankEntry> comparator = Comparator.comparing(UserRankEntry::getRankScore).thenComparing(UserRankEntry::getUserId);
+        rank = new RedBlackTreeRankImpl<>(comparator, UserRankEntry::new, UserRankEntry::getUserId, optimisticRead);
+        Random random = new Random(1);
+        for (int userId = 1; userId <= size; userId++) {
+            rank.put(userId, new UserRankEntry(userId, random.nextInt(size)));
+        }
+    }
+
+    @Benchmark
+    public Object operation() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int userId = random.nextInt(size) + 1;
+        int op = random.nextInt(100);
+        if (op >= readPercent) {
+            return rank.incrementScore(userId, random.nextInt(-10, 11), (entry, delta) -> entry.setRankScore(entry.getRankScore() + delta));
+        }
+        switch (op % 3) {
+            case 0:
+                return rank.get(userId);
+            case 1:
+                return rank.getRank(userId);
+            default:
+                return rank.rankSize();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : new int[]{1, 2, 4, 8}) {
+            new Runner(new OptionsBuilder()
+                    .include(RankLockBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build()).run();
+        }
+    }
+}
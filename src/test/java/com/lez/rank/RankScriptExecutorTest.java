@@ -0,0 +1,132 @@
+package com.lez.rank;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaValue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+public class RankScriptExecutorTest {
+    private Comparator<UserRankEntry> comparator = Comparator.comparing(UserRankEntry::getRankScore).thenComparing(UserRankEntry::getUserId);
+
+    private RedBlackTreeRankImpl<Integer, UserRankEntry> boardA = new RedBlackTreeRankImpl<>(comparator, UserRankEntry::new, UserRankEntry::getUserId);
+    private RedBlackTreeRankImpl<Integer, UserRankEntry> boardB = new RedBlackTreeRankImpl<>(comparator, UserRankEntry::new, UserRankEntry::getUserId);
+    private RankScriptExecutor<Integer, UserRankEntry> executor = new RankScriptExecutor<>(
+            RankScriptCodec.coerce(Integer.class, UserRankEntry.class),
+            (entry, delta) -> entry.setRankScore(entry.getRankScore() + delta));
+
+    @Before
+    public void prepareData() {
+        for (int userId = 1; userId <= 200; userId++) {
+            boardA.put(userId, new UserRankEntry(userId, userId));
+            boardB.put(userId, new UserRankEntry(userId, userId));
+        }
+        executor.register("a", boardA);
+        executor.register("b", boardB);
+    }
+
+    @Test
+    public void testEval() {
+        String script = ""
+                + "local a, b = BOARDS[1], BOARDS[2]\n"
+                + "local userId, bonus = ARGV[1], ARGV[2]\n"
+                + "if rank.getRank(a, userId) > 100 then\n"
+                + "  rank.incrementScore(a, userId, bonus)\n"
+                + "  rank.remove(b, userId)\n"
+                + "end\n"
+                + "local r = rank.getRank(a, userId)\n"
+                + "return {r, rank.rankIn(a, r - 1), rank.rankIn(a, r + 1), rank.size(b), rank.get(a, userId):getRankScore()}";
+
+        Object result = executor.eval(script, Arrays.asList("a", "b"), 150, 1000);
+        Assert.assertEquals(Arrays.asList(200, 200, null, 199, 1150), result);
+        Assert.assertEquals(Integer.valueOf(200), boardA.getRank(150));
+        Assert.assertNull(boardB.get(150));
+
+        result = executor.eval(script, Arrays.asList("a", "b"), 50, 1000);
+        Assert.assertEquals(Arrays.asList(50, 49, 51, 199, 50), result);
+    }
+
+    @Test
+    public void testEvalSha() {
+        String sha = executor.load("return rank.rankRange(BOARDS[1], ARGV[1], ARGV[2])");
+        Assert.assertTrue(executor.exists(sha));
+        Assert.assertEquals(sha, executor.load("return rank.rankRange(BOARDS[1], ARGV[1], ARGV[2])"));
+
+        Object result = executor.evalSha(sha, Collections.singletonList("b"), 1, 4);
+        Assert.assertEquals(boardB.rankRange(1, 4), result);
+
+        String put = executor.load("local v = rank.get(BOARDS[1], ARGV[1]); v:setRankScore(ARGV[2]); rank.put(BOARDS[1], ARGV[1], v); return rank.getRank(BOARDS[1], ARGV[1])");
+        Assert.assertEquals(1, executor.evalSha(put, Collections.singletonList("a"), 10, -1));
+    }
+
+    @Test
+    public void testIllegalAccess() {
+        List<String> onlyA = Collections.singletonList("a");
+        assertFail(() -> executor.eval("return rank.size('b')", onlyA));
+        assertFail(() -> executor.eval("return io.open('x')", onlyA));
+        assertFail(() -> executor.eval("return luajava", Collections.singletonList("c")));
+        assertFail(() -> executor.evalSha("0000", onlyA));
+        assertFail(() -> executor.eval("return (", onlyA));
+        Assert.assertNull(executor.eval("return luajava", onlyA));
+    }
+
+    @Test
+    public void testIsolation() {
+        List<String> onlyA = Collections.singletonList("a");
+        executor.eval("x = 1; _G.y = 2", onlyA);
+        Assert.assertNull(executor.eval("return x or y", onlyA));
+
+        assertFail(() -> executor.eval("rank.get = nil", onlyA));
+        assertFail(() -> executor.eval("string.len = nil", onlyA));
+        assertFail(() -> executor.eval("getmetatable(rank).__index.get = nil", onlyA));
+        assertFail(() -> executor.eval("getmetatable('').__index.len = nil", onlyA));
+        assertFail(() -> executor.eval("return load('x = 1')()", onlyA));
+        Assert.assertEquals(3, executor.eval("return string.len('abc')", onlyA));
+        Assert.assertNull(executor.eval("return getmetatable('')", onlyA));
+        Assert.assertEquals(3, executor.eval("return ('abc'):len()", onlyA));
+        //不修改进程共享的字符串元表
+        Assert.assertTrue(LuaString.s_metatable.rawget(LuaValue.METATABLE).isnil());
+        Assert.assertEquals(1, executor.eval("return rank.getRank(BOARDS[1], 1)", onlyA));
+    }
+
+    @Test
+    public void testInstructionLimit() {
+        RankScriptExecutor<Integer, UserRankEntry> limited = new RankScriptExecutor<>(RankScriptCodec.coerce(Integer.class, UserRankEntry.class), null, 10000);
+        RedBlackTreeRankImpl<Integer, UserRankEntry> board = new RedBlackTreeRankImpl<>(comparator, UserRankEntry::new, UserRankEntry::getUserId);
+        limited.register("c", board);
+        List<String> onlyC = Collections.singletonList("c");
+        assertFail(() -> limited.eval("while true do end", onlyC));
+        assertFail(() -> limited.eval("local function f() while true do end end while true do pcall(f) end", onlyC));
+
+        //没有回滚：出错之前的写操作保留
+        assertFail(() -> limited.eval("rank.put(BOARDS[1], 1, ARGV[1]) while true do end", onlyC, new UserRankEntry(1, 1)));
+        Assert.assertEquals(1, board.rankSize());
+        Assert.assertEquals(499500, limited.eval("local s = 0 for i = 1, 999 do s = s + i end return s", onlyC));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testMixedTable() {
+        Object result = executor.eval("return {10, 20, name = 'x'}", Collections.singletonList("a"));
+        Map<Object, Object> map = (Map<Object, Object>) result;
+        Assert.assertEquals(3, map.size());
+        Assert.assertEquals(10, map.get(1));
+        Assert.assertEquals("x", map.get("name"));
+        Assert.assertEquals(Arrays.asList(10, 20), executor.eval("return {10, 20}", Collections.singletonList("a")));
+    }
+
+    private static void assertFail(Runnable runnable) {
+        try {
+            runnable.run();
+        } catch (RuntimeException e) {
+            return;
+        }
+        Assert.fail();
+    }
+}
@@ -0,0 +1,180 @@
+package com.lez.rank;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+public class RankServletTest {
+    private Comparator<UserRankEntry> comparator = Comparator.comparing(UserRankEntry::getRankScore).thenComparing(UserRankEntry::getUserId);
+    private RedBlackTreeRankImpl<Integer, UserRankEntry> rank = new RedBlackTreeRankImpl<>(comparator, UserRankEntry::new, UserRankEntry::getUserId);
+    private RankJsonWriter<UserRankEntry> jsonWriter = RankJsonWriter.<UserRankEntry>builder()
+            .longField("userId", UserRankEntry::getUserId)
+            .doubleField("score", UserRankEntry::getRankScore)
+            .build();
+    private RankServlet servlet = new RankServlet(Runnable::run);
+
+    @Before
+    public void prepareData() {
+        for (int userId = 1; userId <= 50; userId++) {
+            rank.put(userId, new UserRankEntry(userId, userId * 10));
+        }
+        servlet.register("level", rank, jsonWriter, Integer::valueOf);
+    }
+
+    @Test
+    public void testRange() throws IOException {
+        MockResponse first = get(params("board", "level", "from", "1", "to", "4"), null);
+        Assert.assertEquals(200, first.status);
+        Assert.assertTrue(first.asyncCompleted);
+        Assert.assertEquals("[{\"rank\":1,\"userId\":1,\"score\":10},{\"rank\":2,\"userId\":2,\"score\":20},{\"rank\":3,\"userId\":3,\"score\":30}]", first.body());
+        String etag = first.headers.get("ETag");
+        Assert.assertNotNull(etag);
+
+        MockResponse notModified = get(params("board", "level", "from", "1", "to", "4"), etag);
+        Assert.assertEquals(304, notModified.status);
+        Assert.assertFalse(notModified.asyncStarted);
+
+        MockResponse cached = get(params("board", "level", "from", "1", "to", "4"), null);
+        Assert.assertEquals(first.body(), cached.body());
+        Assert.assertEquals(etag, cached.headers.get("ETag"));
+
+        rank.incrementScore(1, 1000, (entry, delta) -> entry.setRankScore(entry.getRankScore() + delta));
+        MockResponse changed = get(params("board", "level", "from", "1", "to", "4"), etag);
+        Assert.assertEquals(200, changed.status);
+        Assert.assertNotEquals(etag, changed.headers.get("ETag"));
+        Assert.assertEquals(new String(jsonWriter.toBytes(rank, 1, 4), StandardCharsets.UTF_8), changed.body());
+    }
+
+    @Test
+    public void testRankAndErrors() throws IOException {
+        MockResponse response = get(params("board", "level", "op", "rank", "key", "7"), null);
+        Assert.assertEquals("{\"rank\":7}", response.body());
+        response = get(params("board", "level", "op", "rank", "key", "70"), null);
+        Assert.assertEquals("{\"rank\":null}", response.body());
+
+        Assert.assertEquals(404, get(params("board", "none"), null).status);
+        Assert.assertEquals(400, get(params("board", "level", "from", "0"), null).status);
+        Assert.assertEquals(400, get(params("board", "level", "from", "1", "to", "5000"), null).status);
+        Assert.assertEquals(400, get(params("board", "level", "from", "x"), null).status);
+        MockResponse badKey = get(params("board", "level", "op", "rank", "key", "x"), null);
+        Assert.assertEquals(400, badKey.status);
+        Assert.assertFalse(badKey.asyncStarted);
+    }
+
+    @Test
+    public void testEtagNotReused() throws IOException {
+        RedBlackTreeRankImpl<Integer, UserRankEntry> other = new RedBlackTreeRankImpl<>(comparator, UserRankEntry::new, UserRankEntry::getUserId);
+        for (int userId = 1; userId <= 50; userId++) {
+            other.put(userId, new UserRankEntry(userId, userId * 10));
+        }
+        Assert.assertEquals(rank.version(), other.version());
+        servlet.register("pay", other, jsonWriter, Integer::valueOf);
+
+        String etag = get(params("board", "level", "from", "1", "to", "4"), null).headers.get("ETag");
+        Assert.assertTrue(etag.startsWith("\"") && etag.endsWith("\""));
+        //版本相同的其他排行榜
+        Assert.assertEquals(200, get(params("board", "pay", "from", "1", "to", "4"), etag).status);
+
+        //重启后版本相同的同一个排行榜
+        servlet = new RankServlet(Runnable::run);
+        servlet.register("level", rank, jsonWriter, Integer::valueOf);
+        Assert.assertEquals(200, get(params("board", "level", "from", "1", "to", "4"), etag).status);
+    }
+
+    @Test
+    public void testPageCacheEviction() throws IOException {
+        servlet = new RankServlet(Runnable::run, 100, 2);
+        servlet.register("level", rank, jsonWriter, Integer::valueOf);
+        get(params("board", "level", "from", "1", "to", "4"), null);
+        get(params("board", "level", "from", "4", "to", "8"), null);
+        get(params("board", "level", "from", "1", "to", "4"), null);
+        get(params("board", "level", "from", "8", "to", "12"), null);
+        Assert.assertTrue(servlet.isCached("level", 1, 4));
+        Assert.assertFalse(servlet.isCached("level", 4, 8));
+        Assert.assertTrue(servlet.isCached("level", 8, 12));
+    }
+
+    private MockResponse get(Map<String, String> params, String ifNoneMatch) throws IOException {
+        MockResponse response = new MockResponse();
+        AsyncContext asyncContext = (AsyncContext) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{AsyncContext.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("complete")) {
+                        response.asyncCompleted = true;
+                    }
+                    return null;
+                });
+        HttpServletRequest request = (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{HttpServletRequest.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getParameter":
+                            return params.get((String) args[0]);
+                        case "getHeader":
+                            return "If-None-Match".equals(args[0]) ? ifNoneMatch : null;
+                        case "startAsync":
+                            response.asyncStarted = true;
+                            return asyncContext;
+                        default:
+                            return null;
+                    }
+                });
+        servlet.doGet(request, response.proxy());
+        return response;
+    }
+
+    private static Map<String, String> params(String... kv) {
+        Map<String, String> params = new HashMap<>();
+        for (int i = 0; i < kv.length; i += 2) {
+            params.put(kv[i], kv[i + 1]);
+        }
+        return params;
+    }
+
+    private static class MockResponse {
+        int status = 200;
+        boolean asyncStarted;
+        boolean asyncCompleted;
+        final Map<String, String> headers = new HashMap<>();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        String body() {
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+
+        HttpServletResponse proxy() {
+            ServletOutputStream outputStream = new ServletOutputStream() {
+                @Override
+                public void write(int b) {
+                    out.write(b);
+                }
+            };
+            return (HttpServletResponse) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{HttpServletResponse.class},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "setStatus":
+                            case "sendError":
+                                status = (Integer) args[0];
+                                return null;
+                            case "setHeader":
+                                headers.put((String) args[0], (String) args[1]);
+                                return null;
+                            case "getOutputStream":
+                                return outputStream;
+                            default:
+                                return null;
+                        }
+                    });
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.lez.rank;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class RankSubscriptionsTest {
+    private Comparator<UserRankEntry> comparator = Comparator.comparing(UserRankEntry::getRankScore).thenComparing(UserRankEntry::getUserId);
+    private RedBlackTreeRankImpl<Integer, UserRankEntry> rank = new RedBlackTreeRankImpl<>(comparator, UserRankEntry::new, UserRankEntry::getUserId);
+    private ExecutorService executor = Executors.newFixedThreadPool(2);
+    private RankSubscriptions<Integer, UserRankEntry> subscriptions = new RankSubscriptions<>(rank, executor);
+
+    @After
+    public void tearDown() {
+        subscriptions.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testRangeSubscription() throws Exception {
+        Random random = new Random(1);
+        for (int userId = 1; userId <= 500; userId++) {
+            rank.put(userId, new UserRankEntry(userId, random.nextDouble() * 1000));
+        }
+
+        Map<Integer, Integer> view = new HashMap<>();
+        CountDownLatch blocked = new CountDownLatch(1);
+        subscriptions.subscribeRange(11, 21, diff -> {
+            await(blocked);
+            apply(view, diff);
+        });
+
+        //订阅者阻塞时写入不受影响
+        for (int i = 0; i < 20000; i++) {
+            int userId = random.nextInt(600) + 1;
+            if (random.nextInt(10) == 0) {
+                rank.remove(userId);
+            } else {
+                rank.put(userId, new UserRankEntry(userId, random.nextDouble() * 1000));
+            }
+        }
+        blocked.countDown();
+
+        Map<Integer, Integer> expected = new HashMap<>();
+        rank.rankRangeForEach(11, 21, (value, r) -> expected.put(value.getUserId(), r));
+        assertEventually(expected, view);
+        Assert.assertTrue(subscriptions.getDeliveryCount() < 20000);
+    }
+
+    @Test
+    public void testMoveBeforeRange() {
+        //在写入线程中同步推送，写入返回时推送已经完成
+        RedBlackTreeRankImpl<Integer, UserRankEntry> rank = new RedBlackTreeRankImpl<>(comparator, UserRankEntry::new, UserRankEntry::getUserId);
+        for (int userId = 1; userId <= 50; userId++) {
+            rank.put(userId, new UserRankEntry(userId, userId * 10));
+        }
+        try (RankSubscriptions<Integer, UserRankEntry> subscriptions = new RankSubscriptions<>(rank, Runnable::run)) {
+            Map<Integer, Integer> view = new HashMap<>();
+            subscriptions.subscribeRange(11, 21, diff -> apply(view, diff));
+            Assert.assertEquals(1, subscriptions.getDeliveryCount());
+
+            //区间前面的移动不影响区间
+            int first = rank.rankIn(1);
+            double score = (rank.get(first).getRankScore() + rank.get(rank.rankIn(2)).getRankScore()) / 2;
+            rank.incrementScore(first, 0, (v, d) -> v.setRankScore(score));
+            Assert.assertEquals(1, subscriptions.getDeliveryCount());
+
+            //区间前面的删除使区间整体移动
+            rank.remove(first);
+            Assert.assertEquals(2, subscriptions.getDeliveryCount());
+            Map<Integer, Integer> expected = new HashMap<>();
+            rank.rankRangeForEach(11, 21, (value, r) -> expected.put(value.getUserId(), r));
+            Assert.assertEquals(expected, view);
+        }
+    }
+
+    @Test
+    public void testRedeliverAfterFailure() {
+        RedBlackTreeRankImpl<Integer, UserRankEntry> rank = new RedBlackTreeRankImpl<>(comparator, UserRankEntry::new, UserRankEntry::getUserId);
+        for (int userId = 1; userId <= 10; userId++) {
+            rank.put(userId, new UserRankEntry(userId, userId));
+        }
+        try (RankSubscriptions<Integer, UserRankEntry> subscriptions = new RankSubscriptions<>(rank, Runnable::run)) {
+            Map<Integer, Integer> view = new HashMap<>();
+            AtomicBoolean fail = new AtomicBoolean(true);
+            subscriptions.subscribeRange(1, 4, diff -> {
+                if (fail.getAndSet(false)) {
+                    throw new RuntimeException("订阅者出错");
+                }
+                apply(view, diff);
+            });
+            Assert.assertEquals(1, subscriptions.getFailedDeliveryCount());
+            Assert.assertTrue(view.isEmpty());
+
+            //失败的首次推送和这次的变化一起补发
+            rank.put(20, new UserRankEntry(20, 0));
+            Map<Integer, Integer> expected = new HashMap<>();
+            expected.put(20, 1);
+            expected.put(1, 2);
+            expected.put(2, 3);
+            Assert.assertEquals(expected, view);
+        }
+    }
+
+    @Test
+    public void testKeySubscription() throws Exception {
+        for (int userId = 1; userId <= 100; userId++) {
+            rank.put(userId, new UserRankEntry(userId, userId));
+        }
+        Map<Integer, Integer> view = new HashMap<>();
+        List<Integer> keys = Arrays.asList(10, 50, 200);
+        subscriptions.subscribeKeys(keys, diff -> apply(view, diff));
+        Map<Integer, Integer> expected = new HashMap<>();
+        expected.put(10, 10);
+        expected.put(50, 50);
+        assertEventually(expected, view);
+
+        //排在前面的数据被删除，订阅的关键字排名前移
+        rank.remove(1);
+        rank.put(200, new UserRankEntry(200, 0.5));
+        rank.remove(50);
+        expected.clear();
+        expected.put(10, 10);
+        expected.put(200, 1);
+        assertEventually(expected, view);
+    }
+
+    private static void apply(Map<Integer, Integer> view, RankDiff<Integer> diff) {
+        synchronized (view) {
+            for (RankDiff.Change<Integer> c : diff.getLeft()) {
+                Assert.assertEquals(Integer.valueOf(c.getOldRank()), view.remove(c.getKey()));
+            }
+            for (RankDiff.Change<Integer> c : diff.getEntered()) {
+                Assert.assertNull(view.put(c.getKey(), c.getNewRank()));
+            }
+            for (RankDiff.Change<Integer> c : diff.getMoved()) {
+                Assert.assertEquals(Integer.valueOf(c.getOldRank()), view.put(c.getKey(), c.getNewRank()));
+            }
+        }
+    }
+
+    private static void assertEventually(Map<Integer, Integer> expected, Map<Integer, Integer> view) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            synchronized (view) {
+                if (expected.equals(view)) {
+                    return;
+                }
+            }
+            Thread.sleep(10);
+        }
+        synchronized (view) {
+            Assert.assertEquals(expected, view);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.lez.rank;
+
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 使用内存中的H2数据库代替MySQL
+ */
+public class RankWriteBehindPersisterTest {
+    private Comparator<UserRankEntry> comparator = Comparator.comparing(UserRankEntry::getRankScore).thenComparing(UserRankEntry::getUserId);
+    private RedBlackTreeRankImpl<Integer, UserRankEntry> rank = new RedBlackTreeRankImpl<>(comparator, UserRankEntry::new, UserRankEntry::getUserId);
+    private ComboPooledDataSource dataSource;
+    private RankWriteBehindPersister<Integer, UserRankEntry> persister;
+    private volatile Runnable onBind = () -> {
+    };
+
+    @Before
+    public void prepare() throws SQLException {
+        dataSource = new ComboPooledDataSource();
+        dataSource.setJdbcUrl("jdbc:h2:mem:rank_" + System.nanoTime() + ";DB_CLOSE_DELAY=-1");
+        dataSource.setMaxPoolSize(4);
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE user_rank (user_id INT PRIMARY KEY, score DOUBLE)");
+        }
+
+        persister = newPersister(20);
+    }
+
+    private RankWriteBehindPersister<Integer, UserRankEntry> newPersister(long flushIntervalMs) {
+        return new RankWriteBehindPersister<>(rank, dataSource,
+                "MERGE INTO user_rank (user_id, score) KEY (user_id) VALUES (?, ?)",
+                "DELETE FROM user_rank WHERE user_id = ?",
+                new RankWriteBehindPersister.RowBinder<Integer, UserRankEntry>() {
+                    @Override
+                    public void bindUpsert(PreparedStatement ps, Integer key, UserRankEntry value) throws SQLException {
+                        ps.setInt(1, key);
+                        ps.setDouble(2, value.getRankScore());
+                        onBind.run();
+                    }
+
+                    @Override
+                    public void bindDelete(PreparedStatement ps, Integer key) throws SQLException {
+                        ps.setInt(1, key);
+                    }
+                }, 50, flushIntervalMs, 200);
+    }
+
+    @After
+    public void close() {
+        dataSource.close();
+    }
+
+    @Test
+    public void testFlush() throws SQLException {
+        Random random = new Random();
+        for (int i = 0; i < 3000; i++) {
+            int userId = random.nextInt(300) + 1;
+            int op = random.nextInt(10);
+            if (op == 0) {
+                persister.remove(userId);
+            } else if (op < 5 || rank.get(userId) == null) {
+                persister.put(userId, new UserRankEntry(userId, random.nextDouble() * 1000));
+            } else {
+                persister.incrementScore(userId, random.nextInt(10), (entry, delta) -> entry.setRankScore(entry.getRankScore() + delta));
+            }
+            Assert.assertTrue(persister.getPendingKeys() <= 200);
+        }
+        persister.close();
+
+        Assert.assertEquals(0, persister.getPendingKeys());
+        Assert.assertTrue(persister.getFlushCount() > 0);
+        Assert.assertTrue(persister.getFlushedRows() < 3000);
+        Assert.assertNull(persister.getLastError());
+
+        Map<Integer, Double> stored = new HashMap<>();
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT user_id, score FROM user_rank")) {
+            while (rs.next()) {
+                stored.put(rs.getInt(1), rs.getDouble(2));
+            }
+        }
+        Assert.assertEquals(rank.rankSize(), stored.size());
+        for (Map.Entry<Integer, Double> entry : stored.entrySet()) {
+            Assert.assertEquals(rank.get(entry.getKey()).getRankScore(), entry.getValue(), 0);
+        }
+    }
+
+    @Test
+    public void testFlushBounded() throws SQLException {
+        persister.close();
+        persister = newPersister(60000);
+        for (int userId = 1; userId <= 40; userId++) {
+            persister.put(userId, new UserRankEntry(userId, userId));
+        }
+        //写入期间不断有新的脏key，flush只写入开始时已有的
+        AtomicInteger nextUserId = new AtomicInteger(1000);
+        onBind = () -> {
+            int userId = nextUserId.incrementAndGet();
+            if (userId <= 1100) {
+                persister.put(userId, new UserRankEntry(userId, userId));
+            }
+        };
+        Assert.assertEquals(40, persister.flush());
+        Assert.assertEquals(40, persister.getLastFlushRows());
+        onBind = () -> {
+        };
+        persister.close();
+        Assert.assertEquals(0, persister.getPendingKeys());
+    }
+
+    @Test
+    public void testRetryAfterFailure() throws SQLException {
+        persister.close();
+        persister = newPersister(60000);
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE user_rank");
+        }
+        persister.put(1, new UserRankEntry(1, 10));
+        try {
+            persister.flush();
+            Assert.fail();
+        } catch (SQLException e) {
+            Assert.assertEquals(1, persister.getPendingKeys());
+        }
+
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE user_rank (user_id INT PRIMARY KEY, score DOUBLE)");
+        }
+        Assert.assertEquals(1, persister.flush());
+        persister.close();
+    }
+}
@@ -5,6 +5,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
 
 /**
@@ -115,64 +116,236 @@ public class RedBlackTreeRankImplTest {
         }
     }
 
-    private void testAfterModified() {
-        testGet();
-        testGetRank();
-        testRankSize();
-        testRankIn();
+    @Test
+    public void testIncrementScore() {
+        Random random = new Random();
+        for (int i = 0; i < length * 3; i++) {
+            int userId = random.nextInt(length + 10) + 1;
+            long delta = random.nextInt(length) - length / 2;
+
+            Integer rank = redBlackTreeRank.incrementScore(userId, delta, (entry, d) -> entry.setRankScore(entry.getRankScore() + d));
+            UserRankEntry entry = simpleRank.get(userId);
+            if (entry == null) {
+                Assert.assertNull(rank);
+                continue;
+            }
+            simpleRank.put(userId, new UserRankEntry(userId, entry.getRankScore() + delta));
+            Assert.assertEquals(simpleRank.getRank(userId), rank);
+            testAfterModified();
+        }
     }
-}
 
-class UserRankEntry {
-    private int userId;
-    private double rankScore;
+    @Test
+    public void testMerge() {
+        Random random = new Random();
+        for (int i = 0; i < length * 3; i++) {
+            int userId = random.nextInt(length * 2) + 1;
+            double score = random.nextDouble() * length;
+
+            UserRankEntry merged = redBlackTreeRank.merge(userId, entry -> {
+                if (entry == null) {
+                    return new UserRankEntry(userId, score);
+                }
+                entry.setRankScore(score);
+                return entry;
+            });
+            simpleRank.put(userId, new UserRankEntry(userId, score));
+            userIdSet.add(userId);
+            Assert.assertEquals(simpleRank.get(userId), merged);
+            testAfterModified();
+        }
 
-    public UserRankEntry(UserRankEntry entry) {
-        this.userId = entry.userId;
-        this.rankScore = entry.rankScore;
+        Assert.assertNull(redBlackTreeRank.merge(length * 3, entry -> null));
+        Assert.assertNull(redBlackTreeRank.get(length * 3));
     }
 
-    public UserRankEntry(int userId, double rankScore) {
-        this.userId = userId;
-        this.rankScore = rankScore;
+    @Test
+    public void testCallbacksDoNotTouchBoard() {
+        //修改参数后返回null
+        redBlackTreeRank.merge(4, entry -> {
+            entry.setRankScore(length * 10);
+            return null;
+        });
+        //返回的数据之后又被调用方修改
+        UserRankEntry held = new UserRankEntry(6, -1);
+        redBlackTreeRank.merge(6, entry -> held);
+        held.setRankScore(length * 10);
+        //scoreAdder修改到一半抛出异常
+        try {
+            redBlackTreeRank.incrementScore(8, 1, (entry, delta) -> {
+                entry.setRankScore(length * 10);
+                throw new IllegalStateException();
+            });
+            Assert.fail();
+        } catch (IllegalStateException ignored) {
+        }
+        redBlackTreeRank.checkInvariants();
+        Assert.assertEquals(Integer.valueOf(1), redBlackTreeRank.getRank(6));
+        Assert.assertEquals(simpleRank.get(4), redBlackTreeRank.get(4));
+        Assert.assertEquals(simpleRank.get(8), redBlackTreeRank.get(8));
     }
 
-    public int getUserId() {
-        return userId;
+    @Test
+    public void testGetRanks() {
+        Random random = new Random();
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < length / 2; i++) {
+            keys.add(random.nextInt(length + 20) + 1);
+        }
+
+        int[] ranks = redBlackTreeRank.getRanks(keys);
+        int[] subsetRanks = redBlackTreeRank.getRanksInSubset(keys);
+        for (int i = 0; i < keys.size(); i++) {
+            Integer rank = simpleRank.getRank(keys.get(i));
+            Assert.assertEquals(rank == null ? 0 : rank, ranks[i]);
+            if (rank == null) {
+                Assert.assertEquals(0, subsetRanks[i]);
+                continue;
+            }
+
+            //子集内的排名 = 子集中排名更靠前的不同key数 + 1
+            Set<Integer> before = new HashSet<>();
+            for (Integer other : keys) {
+                Integer otherRank = simpleRank.getRank(other);
+                if (otherRank != null && otherRank < rank) {
+                    before.add(other);
+                }
+            }
+            Assert.assertEquals(before.size() + 1, subsetRanks[i]);
+        }
     }
 
-    public void setUserId(int userId) {
-        this.userId = userId;
+    @Test
+    public void testBulkLoad() {
+        Random random = new Random();
+        for (int n : new int[]{0, 1, 2, 3, 7, 100, 100000}) {
+            List<UserRankEntry> entries = new ArrayList<>();
+            for (int userId = 1; userId <= n; userId++) {
+                entries.add(new UserRankEntry(userId, random.nextInt(n + 1)));
+            }
+            RedBlackTreeRankImpl<Integer, UserRankEntry> rank = new RedBlackTreeRankImpl<>(comparator, UserRankEntry::new, UserRankEntry::getUserId);
+            rank.put(-1, new UserRankEntry(-1, -1));
+            rank.bulkLoad(entries);
+            rank.checkInvariants();
+            Assert.assertEquals(n, rank.rankSize());
+            Assert.assertNull(rank.get(-1));
+
+            entries.sort(comparator);
+            for (int i = 0; i < n; i++) {
+                Assert.assertEquals(Integer.valueOf(entries.get(i).getUserId()), rank.rankIn(i + 1));
+                Assert.assertEquals(Integer.valueOf(i + 1), rank.getRank(entries.get(i).getUserId()));
+            }
+
+            //加载后的树可以继续正常修改；put更新时逐个移动相邻数据，大榜上只做少量修改
+            for (int i = 0; i < Math.min(n, 1000); i++) {
+                int userId = random.nextInt(n * 2) + 1;
+                if (random.nextBoolean()) {
+                    rank.remove(userId);
+                } else {
+                    rank.put(userId, new UserRankEntry(userId, random.nextDouble() * n));
+                }
+            }
+            rank.checkInvariants();
+        }
     }
 
-    public double getRankScore() {
-        return rankScore;
+    @Test(expected = RuntimeException.class)
+    public void testBulkLoadDuplicateKey() {
+        redBlackTreeRank.bulkLoad(Arrays.asList(new UserRankEntry(1, 1), new UserRankEntry(1, 2)));
     }
 
-    public void setRankScore(double rankScore) {
-        this.rankScore = rankScore;
+    @Test
+    public void testOptimisticRead() throws InterruptedException {
+        RedBlackTreeRankImpl<Integer, UserRankEntry> optimistic = new RedBlackTreeRankImpl<>(comparator, valueCopier, keyExtractor, true);
+        for (Integer userId : userIdSet) {
+            optimistic.put(userId, redBlackTreeRank.get(userId));
+        }
+        redBlackTreeRank = optimistic;
+        testRandomOperations();
+
+        //并发写入时，乐观读的结果要么和某次写入后的状态一致，要么退回到加锁读取
+        List<Integer> keys = new ArrayList<>(userIdSet);
+        int size = optimistic.rankSize();
+        AtomicBoolean stop = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            Random random = new Random();
+            while (!stop.get()) {
+                int userId = keys.get(random.nextInt(keys.size()));
+                optimistic.incrementScore(userId, random.nextInt(21) - 10, (entry, delta) -> entry.setRankScore(entry.getRankScore() + delta));
+            }
+        });
+        writer.start();
+        try {
+            Random random = new Random();
+            for (int i = 0; i < 200000; i++) {
+                int userId = keys.get(random.nextInt(keys.size()));
+                Assert.assertEquals(userId, optimistic.get(userId).getUserId());
+                int rank = optimistic.getRank(userId);
+                Assert.assertTrue(rank >= 1 && rank <= size);
+                Assert.assertEquals(size, optimistic.rankSize());
+            }
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+        optimistic.checkInvariants();
     }
 
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        UserRankEntry entry = (UserRankEntry) o;
-        return userId == entry.userId &&
-                Double.compare(entry.rankScore, rankScore) == 0;
+    @Test(timeout = 10000)
+    public void testOptimisticReentry() {
+        RedBlackTreeRankImpl<Integer, UserRankEntry> optimistic = new RedBlackTreeRankImpl<>(comparator, valueCopier, keyExtractor, true);
+        optimistic.put(1, new UserRankEntry(1, 10));
+        optimistic.put(2, new UserRankEntry(2, 20));
+        //StampedLock不可重入，回调中访问排行榜会抛出异常而不是死锁
+        try {
+            optimistic.incrementScore(1, 5, (entry, delta) -> entry.setRankScore(optimistic.get(2).getRankScore() + delta));
+            Assert.fail();
+        } catch (RuntimeException e) {
+            Assert.assertEquals(10, optimistic.get(1).getRankScore(), 0);
+        }
+        try {
+            optimistic.merge(1, v -> {
+                optimistic.rankSize();
+                return v;
+            });
+            Assert.fail();
+        } catch (RuntimeException ignored) {
+        }
+        //持有读锁时再加读锁
+        try {
+            optimistic.rankRangeForEach(1, 3, (value, r) -> optimistic.rankRange(1, 3));
+            Assert.fail();
+        } catch (RuntimeException ignored) {
+        }
+        //锁已经释放
+        Assert.assertEquals(Integer.valueOf(2), optimistic.incrementScore(1, 15, (entry, delta) -> entry.setRankScore(entry.getRankScore() + delta)));
+        optimistic.checkInvariants();
     }
 
-    @Override
-    public int hashCode() {
-        return Objects.hash(userId, rankScore);
+    @Test
+    public void testRandomOperations() {
+        Random random = new Random();
+        for (int i = 0; i < length * 10; i++) {
+            int userId = random.nextInt(length * 2) + 1;
+            if (random.nextInt(3) == 0) {
+                Assert.assertEquals(simpleRank.remove(userId), redBlackTreeRank.remove(userId));
+                userIdSet.remove(userId);
+            } else {
+                double score = random.nextDouble() * length;
+                redBlackTreeRank.put(userId, new UserRankEntry(userId, score));
+                simpleRank.put(userId, new UserRankEntry(userId, score));
+                userIdSet.add(userId);
+            }
+        }
+        testAfterModified();
     }
 
-    @Override
-    public String toString() {
-        return "Entry{" +
-                "userId=" + userId +
-                ", rankScore=" + rankScore +
-                '}';
+    private void testAfterModified() {
+        redBlackTreeRank.checkInvariants();
+        testGet();
+        testGetRank();
+        testRankSize();
+        testRankIn();
     }
 }
 
@@ -229,7 +402,7 @@ class SimpleRank {
     }
 
     public List<UserRankEntry> rankRange(int fromInclusive, int toExclusive) {
-        return rankList.subList(fromInclusive, toExclusive);
+        return rankList.subList(fromInclusive - 1, toExclusive - 1);
     }
 
     public UserRankEntry put(int key, UserRankEntry value) {
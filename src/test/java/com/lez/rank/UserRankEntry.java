@@ -0,0 +1,56 @@
+package com.lez.rank;
+
+import java.util.Objects;
+
+class UserRankEntry {
+    private int userId;
+    private double rankScore;
+
+    public UserRankEntry(UserRankEntry entry) {
+        this.userId = entry.userId;
+        this.rankScore = entry.rankScore;
+    }
+
+    public UserRankEntry(int userId, double rankScore) {
+        this.userId = userId;
+        this.rankScore = rankScore;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public void setUserId(int userId) {
+        this.userId = userId;
+    }
+
+    public double getRankScore() {
+        return rankScore;
+    }
+
+    public void setRankScore(double rankScore) {
+        this.rankScore = rankScore;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        UserRankEntry entry = (UserRankEntry) o;
+        return userId == entry.userId &&
+                Double.compare(entry.rankScore, rankScore) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(userId, rankScore);
+    }
+
+    @Override
+    public String toString() {
+        return "Entry{" +
+                "userId=" + userId +
+                ", rankScore=" + rankScore +
+                '}';
+    }
+}
@@ -0,0 +1,98 @@
+package com.lez.setting;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+public class CompressedBitmapTest {
+
+    @Test
+    public void testAddRemove() {
+        Random random = new Random(1);
+        CompressedBitmap bitmap = new CompressedBitmap();
+        TreeSet<Integer> set = new TreeSet<>();
+        for (int i = 0; i < 200000; i++) {
+            //集中在少数几个桶里，让容器在数组和位图之间来回转换
+            int x = random.nextInt(3) * 65536 + random.nextInt(12000);
+            if (random.nextInt(3) == 0) {
+                Assert.assertEquals(set.remove(x), bitmap.remove(x));
+            } else {
+                Assert.assertEquals(set.add(x), bitmap.add(x));
+            }
+        }
+        assertSame(set, bitmap);
+        for (int i = 0; i < 1000; i++) {
+            int x = random.nextInt(4 * 65536);
+            Assert.assertEquals(set.contains(x), bitmap.contains(x));
+        }
+
+        for (Integer x : new TreeSet<>(set)) {
+            bitmap.remove(x);
+        }
+        Assert.assertTrue(bitmap.isEmpty());
+    }
+
+    @Test
+    public void testSetOperations() {
+        Random random = new Random(2);
+        for (int round = 0; round < 20; round++) {
+            TreeSet<Integer> x = randomSet(random);
+            TreeSet<Integer> y = randomSet(random);
+            CompressedBitmap a = toBitmap(x);
+            CompressedBitmap b = toBitmap(y);
+
+            TreeSet<Integer> and = new TreeSet<>(x);
+            and.retainAll(y);
+            assertSame(and, CompressedBitmap.and(a, b));
+
+            TreeSet<Integer> or = new TreeSet<>(x);
+            or.addAll(y);
+            assertSame(or, CompressedBitmap.or(a, b));
+
+            TreeSet<Integer> andNot = new TreeSet<>(x);
+            andNot.removeAll(y);
+            assertSame(andNot, CompressedBitmap.andNot(a, b));
+
+            //参与运算的位图不变
+            assertSame(x, a);
+            assertSame(y, b);
+        }
+    }
+
+    @Test
+    public void testSizeInBytes() {
+        CompressedBitmap sparse = new CompressedBitmap();
+        CompressedBitmap dense = new CompressedBitmap();
+        for (int i = 0; i < 65536; i++) {
+            dense.add(i);
+            if (i % 1000 == 0) {
+                sparse.add(i);
+            }
+        }
+        Assert.assertTrue(sparse.sizeInBytes() < 400);
+        Assert.assertTrue(dense.sizeInBytes() < 8500);
+    }
+
+    private static TreeSet<Integer> randomSet(Random random) {
+        TreeSet<Integer> set = new TreeSet<>();
+        int n = random.nextInt(20000);
+        int bound = random.nextBoolean() ? 3 * 65536 : 40000;
+        for (int i = 0; i < n; i++) {
+            set.add(random.nextInt(bound));
+        }
+        return set;
+    }
+
+    private static CompressedBitmap toBitmap(TreeSet<Integer> set) {
+        CompressedBitmap bitmap = new CompressedBitmap();
+        set.forEach(bitmap::add);
+        return bitmap;
+    }
+
+    private static void assertSame(TreeSet<Integer> expected, CompressedBitmap actual) {
+        Assert.assertEquals(expected.size(), actual.cardinality());
+        Assert.assertArrayEquals(expected.stream().mapToInt(Integer::intValue).toArray(), actual.toArray());
+    }
+}
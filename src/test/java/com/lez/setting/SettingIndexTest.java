@@ -0,0 +1,57 @@
+package com.lez.setting;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class SettingIndexTest {
+    private static final int USERS = 200000;
+
+    @Test
+    public void testQuery() {
+        SettingIndex index = new SettingIndex(new SettingIndex.Field("notify", 0, 3),
+                new SettingIndex.Field("region", 3, 8), new SettingIndex.Field("vip", 8, 9));
+        Random random = new Random(1);
+        long[] settings = new long[USERS];
+        for (int id = 0; id < USERS; id++) {
+            settings[id] = random.nextInt(1 << 9);
+            index.add(id, settings[id]);
+        }
+        for (int i = 0; i < USERS; i++) {
+            int id = random.nextInt(USERS);
+            long setting = SettingSupport.setPosValue(settings[id], 0, 3, random.nextInt(8));
+            index.update(id, settings[id], setting);
+            settings[id] = setting;
+        }
+        for (int id = 0; id < USERS; id += 7) {
+            index.remove(id, settings[id]);
+            settings[id] = -1;
+        }
+
+        CompressedBitmap result = index.query().eq("notify", 3).and("region", 7).andNot("vip", 1).or("region", 30).execute();
+        CompressedBitmap expected = new CompressedBitmap();
+        for (int id = 0; id < USERS; id++) {
+            long setting = settings[id];
+            if (setting < 0) {
+                continue;
+            }
+            long region = SettingSupport.getPosValue(setting, 3, 8);
+            if ((SettingSupport.getPosValue(setting, 0, 3) == 3 && region == 7 && SettingSupport.getPosValue(setting, 8, 9) == 0) || region == 30) {
+                expected.add(id);
+            }
+        }
+        Assert.assertEquals(expected, result);
+        Assert.assertEquals(index.get("region", 30), index.query().eq("region", 30).execute());
+        Assert.assertTrue(index.get("region", 100).isEmpty());
+
+        Assert.assertTrue(index.getBitmapCount() > 0);
+        Assert.assertTrue(index.sizeInBytes() > 0);
+        Assert.assertTrue(index.getBitmapUpdateCount() >= index.getUpdateCount());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testUnknownField() {
+        new SettingIndex(new SettingIndex.Field("notify", 0, 3)).get("region", 1);
+    }
+}